@@ -0,0 +1,93 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import org.perfcake.examples.weaver.Weaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of a large configuration file and creation of all the workers.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigParsingBenchmark {
+
+   @Param({ "100", "5000" })
+   private int multiplicity;
+
+   private File config;
+
+   private Weaver weaver;
+
+   @Setup(Level.Trial)
+   public void createConfig() throws IOException {
+      final List<String> lines = new ArrayList<>();
+      lines.add("# generated configuration");
+      lines.add(multiplicity + "x NormalWorker=statusCode:200,response:Hello world");
+      lines.add(multiplicity + "x DelayWorker=delay:10,statusCode:201");
+      lines.add(multiplicity + "x MaxSpeedWorker=maxSpeed:1000,badCode:503");
+      lines.add(multiplicity / 10 + "x SwitchingWorker=switchPeriod:1000,worker1_class:NormalWorker,worker1_statusCode:500,worker2_class:DelayWorker,worker2_delay:100");
+
+      config = File.createTempFile("weaver-benchmark", ".cfg");
+      Files.write(config.toPath(), lines);
+   }
+
+   @Setup(Level.Invocation)
+   public void createWeaver() {
+      weaver = new Weaver();
+      weaver.setConfig(config.getAbsolutePath());
+   }
+
+   @TearDown(Level.Invocation)
+   public void shutdownWeaver() {
+      weaver.close();
+   }
+
+   @TearDown(Level.Trial)
+   public void deleteConfig() {
+      config.delete();
+   }
+
+   @Benchmark
+   public Weaver init() throws IOException {
+      weaver.init();
+      return weaver;
+   }
+}
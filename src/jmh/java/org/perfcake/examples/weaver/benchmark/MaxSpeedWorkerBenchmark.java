@@ -0,0 +1,60 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import org.perfcake.examples.weaver.worker.MaxSpeedWorker;
+
+import io.vertx.ext.web.RoutingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the rate limiting overhead of {@link MaxSpeedWorker}.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@State(Scope.Benchmark)
+public class MaxSpeedWorkerBenchmark {
+
+   private MaxSpeedWorker worker;
+
+   private RoutingContext context;
+
+   @Setup
+   public void setup() {
+      worker = new MaxSpeedWorker();
+      worker.setMaxSpeed(1_000_000);
+      context = Stubs.context(null);
+   }
+
+   @Benchmark
+   public void work() throws Exception {
+      worker.work(context);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public void workContended() throws Exception {
+      worker.work(context);
+   }
+}
@@ -0,0 +1,73 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import org.perfcake.examples.weaver.worker.NormalWorker;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the response construction of {@link NormalWorker} for the configured response and in the mirror mode.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@State(Scope.Benchmark)
+public class NormalWorkerBenchmark {
+
+   @Param({ "16", "4096" })
+   private int responseSize;
+
+   private NormalWorker responding;
+
+   private NormalWorker mirroring;
+
+   private RoutingContext context;
+
+   @Setup
+   public void setup() {
+      final String payload = StringUtils.repeat('x', responseSize);
+
+      responding = new NormalWorker();
+      responding.setResponse(payload);
+      responding.setStatusMessage("OK");
+
+      mirroring = new NormalWorker();
+      mirroring.setMirrorRequest(true);
+
+      context = Stubs.context(Buffer.buffer(payload));
+   }
+
+   @Benchmark
+   public void response() throws Exception {
+      responding.work(context);
+   }
+
+   @Benchmark
+   public void mirror() throws Exception {
+      mirroring.work(context);
+   }
+}
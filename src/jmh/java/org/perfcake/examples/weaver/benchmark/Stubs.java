@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * Lightweight stubs of the Vert.x request processing objects so that the workers can be measured without any network I/O.
+ * Fluent methods return the stub itself, getters return the configured objects, and everything else is a no-op.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class Stubs {
+
+   private Stubs() {
+   }
+
+   /**
+    * Creates a routing context stub.
+    *
+    * @param body
+    *       The request body returned by the context.
+    * @return The routing context stub.
+    */
+   static RoutingContext context(final Buffer body) {
+      final HttpServerResponse response = stub(HttpServerResponse.class, null, null);
+      final HttpServerRequest request = stub(HttpServerRequest.class, null, null);
+
+      return stub(RoutingContext.class, response, (proxy, method, args) -> {
+         switch (method.getName()) {
+            case "request":
+               return request;
+            case "getBody":
+               return body;
+            default:
+               return null;
+         }
+      });
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> T stub(final Class<T> type, final Object response, final InvocationHandler getters) {
+      return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+         final Class<?> returnType = method.getReturnType();
+
+         if (returnType == type) {
+            return proxy;
+         } else if (returnType == HttpServerResponse.class) {
+            return response;
+         } else if (returnType == boolean.class) {
+            return false;
+         } else if (returnType == int.class) {
+            return 0;
+         } else if (returnType == long.class) {
+            return 0L;
+         } else if (getters != null) {
+            return getters.invoke(proxy, method, args);
+         }
+
+         return null;
+      });
+   }
+}
@@ -0,0 +1,68 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import org.perfcake.examples.weaver.worker.SwitchingWorker;
+
+import io.vertx.ext.web.RoutingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Properties;
+
+/**
+ * Measures the delegate selection of {@link SwitchingWorker} by a single and by many threads.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@State(Scope.Benchmark)
+public class SwitchingWorkerBenchmark {
+
+   private SwitchingWorker worker;
+
+   private RoutingContext context;
+
+   @Setup
+   public void setup() {
+      final Properties configuration = new Properties();
+      configuration.setProperty("worker1_class", "NormalWorker");
+      configuration.setProperty("worker2_class", "NormalWorker");
+      configuration.setProperty("worker2_statusCode", "500");
+      configuration.setProperty("worker3_class", "DelayWorker");
+
+      worker = new SwitchingWorker();
+      worker.configure(configuration);
+      context = Stubs.context(null);
+   }
+
+   @Benchmark
+   public void work() throws Exception {
+      worker.work(context);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public void workContended() throws Exception {
+      worker.work(context);
+   }
+}
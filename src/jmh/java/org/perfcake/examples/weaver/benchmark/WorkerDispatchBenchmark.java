@@ -0,0 +1,78 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.benchmark;
+
+import org.perfcake.examples.weaver.worker.LoadShedder;
+import org.perfcake.examples.weaver.worker.NormalWorker;
+import org.perfcake.examples.weaver.worker.Worker;
+import org.perfcake.examples.weaver.worker.WorkerPool;
+import org.perfcake.examples.weaver.worker.WorkerThread;
+
+import io.vertx.ext.web.RoutingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the dispatch of a request to a worker through the worker pool as done by the executor threads.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@State(Scope.Benchmark)
+public class WorkerDispatchBenchmark {
+
+   @Param({ "10", "1000" })
+   private int workerCount;
+
+   private WorkerPool pool;
+
+   private LoadShedder loadShedder;
+
+   private RoutingContext context;
+
+   @Setup
+   public void setup() {
+      final List<Worker> workers = new ArrayList<>();
+      for (int i = 0; i < workerCount; i++) {
+         workers.add(new NormalWorker());
+      }
+
+      pool = new WorkerPool(workers, Runtime.getRuntime().availableProcessors());
+      loadShedder = new LoadShedder(503, 1, 0);
+      context = Stubs.context(null);
+   }
+
+   @Benchmark
+   public void dispatch() {
+      new WorkerThread(pool, context, loadShedder).run();
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public void dispatchContended() {
+      new WorkerThread(pool, context, loadShedder).run();
+   }
+}
@@ -0,0 +1,272 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Administration endpoints changing the configuration of the running server. Every endpoint responds with the resulting state in JSON.
+ *
+ * <ul>
+ * <li>GET {@value #PATH} - the current state,</li>
+ * <li>POST {@value #PATH}/threads?value=N - the requested number of threads, 0 = the number of workers,</li>
+ * <li>POST {@value #PATH}/lines/I?multiplicity=N - the number of workers of the I-th worker line (starting from 0),</li>
+ * <li>POST {@value #PATH}/shuffle?value=true|false - whether the workers are shuffled,</li>
+ * <li>POST {@value #PATH}/reload - reloads the configuration file.</li>
+ * </ul>
+ *
+ * The threads and lines endpoints change the default route unless there is a route=/path parameter.
+ * The state describes the default route at the top level and all the routes in the routes array.
+ *
+ * The changes are made outside of the event loop.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class AdminHandler {
+
+   /**
+    * The reserved path where the administration endpoints are published.
+    */
+   static final String PATH = "/_weaver/admin";
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(AdminHandler.class);
+
+   /**
+    * Status code of a successful request.
+    */
+   private static final int OK = 200;
+
+   /**
+    * Status code of a wrong request.
+    */
+   private static final int BAD_REQUEST = 400;
+
+   /**
+    * Status code of an unknown endpoint.
+    */
+   private static final int NOT_FOUND = 404;
+
+   /**
+    * Status code of a failed change.
+    */
+   private static final int INTERNAL_SERVER_ERROR = 500;
+
+   /**
+    * Weaver configuration to change.
+    */
+   private final Weaver weaver;
+
+   /**
+    * Creates the administration endpoints.
+    *
+    * @param weaver
+    *       Weaver configuration to change.
+    */
+   AdminHandler(final Weaver weaver) {
+      this.weaver = weaver;
+   }
+
+   /**
+    * Registers the administration endpoints in the router.
+    *
+    * @param router
+    *       The router of a server instance.
+    */
+   void register(final Router router) {
+      router.get(PATH).handler(context -> respond(context, OK, state()));
+      router.post(PATH + "/threads").handler(context -> change(context, () -> weaver.updateThreads(route(context), intParam(context, "value"))));
+      router.post(PATH + "/lines/:line").handler(context -> change(context, () -> weaver.updateMultiplicity(route(context), intParam(context, "line"), intParam(context, "multiplicity"))));
+      router.post(PATH + "/shuffle").handler(context -> change(context, () -> weaver.updateShuffle(Boolean.parseBoolean(param(context, "value")))));
+      router.post(PATH + "/reload").handler(context -> change(context, () -> {
+         if (!weaver.reload()) {
+            throw new IllegalStateException("Unable to reload the configuration, see the log for details.");
+         }
+      }));
+      router.route(PATH + "/*").handler(context -> respond(context, NOT_FOUND, new JsonObject().put("error", "Unknown administration endpoint.")));
+   }
+
+   /**
+    * Makes the change in a worker thread and responds with the resulting state.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @param change
+    *       The change to make.
+    */
+   private void change(final RoutingContext context, final Change change) {
+      context.vertx().<JsonObject>executeBlocking(future -> {
+         try {
+            change.apply();
+            future.complete(state());
+         } catch (Exception e) {
+            future.fail(e);
+         }
+      }, false, result -> {
+         if (result.succeeded()) {
+            respond(context, OK, result.result());
+         } else {
+            final Throwable cause = result.cause();
+            log.warn("Administration request " + context.request().uri() + " failed: " + cause);
+            respond(context, cause instanceof IllegalArgumentException ? BAD_REQUEST : INTERNAL_SERVER_ERROR, state().put("error", String.valueOf(cause.getMessage())));
+         }
+      });
+   }
+
+   /**
+    * Describes the current state of the server.
+    *
+    * @return The current state.
+    */
+   private JsonObject state() {
+      final JsonObject state = new JsonObject();
+      final JsonArray routes = new JsonArray();
+
+      for (final Route route : weaver.getRoutes()) {
+         if (route.isDefault()) {
+            state.mergeIn(describe(route));
+         }
+         routes.add(describe(route).put("path", route.getPath()));
+      }
+
+      return state.put("shuffle", weaver.isShuffle()).put("routes", routes);
+   }
+
+   /**
+    * Describes the current state of a route.
+    *
+    * @param route
+    *       The route.
+    * @return The current state of the route.
+    */
+   private static JsonObject describe(final Route route) {
+      final ThreadPoolExecutor executor = route.getExecutor();
+      final List<WorkerLine> lines = route.getLines();
+
+      final JsonArray workerLines = new JsonArray();
+      for (int i = 0; i < lines.size(); i++) {
+         workerLines.add(new JsonObject()
+               .put("line", i)
+               .put("multiplicity", lines.get(i).getMultiplicity())
+               .put("worker", lines.get(i).getDefinition()));
+      }
+
+      return new JsonObject()
+            .put("requestedThreads", route.getThreads())
+            .put("threads", route.getPoolSize())
+            .put("adaptive", route.isAdaptive())
+            .put("corePoolSize", executor.getCorePoolSize())
+            .put("maximumPoolSize", executor.getMaximumPoolSize())
+            .put("poolSize", executor.getPoolSize())
+            .put("activeThreads", executor.getActiveCount())
+            .put("queued", executor.getQueue().size())
+            .put("queueCapacity", route.getQueueCapacity())
+            .put("workers", route.getWorkers().size())
+            .put("lines", workerLines);
+   }
+
+   /**
+    * Sends the JSON response.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @param statusCode
+    *       The response status code.
+    * @param body
+    *       The response body.
+    */
+   private static void respond(final RoutingContext context, final int statusCode, final JsonObject body) {
+      context.response().setStatusCode(statusCode).putHeader("Content-Type", "application/json").end(body.encodePrettily());
+   }
+
+   /**
+    * Gets a mandatory request parameter.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @param name
+    *       The parameter name.
+    * @return The parameter value.
+    */
+   private static String param(final RoutingContext context, final String name) {
+      final String value = context.request().getParam(name);
+      if (value == null) {
+         throw new IllegalArgumentException("Missing parameter " + name + ".");
+      }
+
+      return value;
+   }
+
+   /**
+    * Gets the path prefix of the route to change.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @return The route parameter, or the path of the default route when it is missing.
+    */
+   private static String route(final RoutingContext context) {
+      final String value = context.request().getParam("route");
+      return value == null ? Route.DEFAULT_PATH : value;
+   }
+
+   /**
+    * Gets a mandatory integer request parameter.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @param name
+    *       The parameter name.
+    * @return The parameter value.
+    */
+   private static int intParam(final RoutingContext context, final String name) {
+      final String value = param(context, name);
+      try {
+         return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Parameter " + name + " must be a number, got " + value + ".");
+      }
+   }
+
+   /**
+    * A change of the configuration.
+    */
+   @FunctionalInterface
+   private interface Change {
+
+      /**
+       * Makes the change.
+       *
+       * @throws Exception
+       *       When the change was not possible.
+       */
+      void apply() throws Exception;
+   }
+}
@@ -0,0 +1,147 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration file and reloads the configuration when it changes.
+ * The configuration is reloaded in the watcher thread, the requests are served by the old workers meanwhile.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class ConfigWatcher implements Closeable {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(ConfigWatcher.class);
+
+   /**
+    * How long the file must stay unchanged before it is reloaded in milliseconds. Editors often write files in several steps.
+    */
+   private static final long QUIET_PERIOD = 500;
+
+   /**
+    * Weaver configuration to reload.
+    */
+   private final Weaver weaver;
+
+   /**
+    * The watched configuration file.
+    */
+   private final Path file;
+
+   /**
+    * Watches the directory with the configuration file.
+    */
+   private final WatchService watchService;
+
+   /**
+    * Starts watching the configuration file.
+    *
+    * @param weaver
+    *       Weaver configuration to reload.
+    * @throws IOException
+    *       When it is not possible to watch the configuration file.
+    */
+   ConfigWatcher(final Weaver weaver) throws IOException {
+      this.weaver = weaver;
+      this.file = Paths.get(weaver.getConfig()).toAbsolutePath().normalize();
+      this.watchService = file.getFileSystem().newWatchService();
+      file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+      final Thread thread = new Thread(this::watch, "config-watcher");
+      thread.setDaemon(true);
+      thread.start();
+
+      log.info("Watching " + file + " for changes.");
+   }
+
+   /**
+    * Waits for the changes of the configuration file and reloads the configuration.
+    */
+   private void watch() {
+      try {
+         while (true) {
+            WatchKey key = watchService.take();
+            boolean changed = isChanged(key);
+
+            if (changed) {
+               // only the changes of the configuration file itself restart the quiet period, not the other files in the directory
+               long quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD);
+               long remaining;
+               while ((remaining = quietUntil - System.nanoTime()) > 0) {
+                  key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+                  if (key != null && isChanged(key)) {
+                     quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD);
+                  }
+               }
+
+               log.info("Configuration file " + file + " changed, reloading...");
+               weaver.reload();
+            }
+         }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+         log.debug("Stopped watching the configuration file.");
+      }
+   }
+
+   /**
+    * Checks the events of the watch key and resets it.
+    *
+    * @param key
+    *       The signalled watch key.
+    * @return True iff the configuration file might have been changed.
+    */
+   private boolean isChanged(final WatchKey key) {
+      boolean changed = false;
+
+      for (final WatchEvent<?> event : key.pollEvents()) {
+         if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+            changed = true;
+         }
+      }
+      key.reset();
+
+      return changed;
+   }
+
+   @Override
+   public void close() {
+      try {
+         watchService.close();
+      } catch (IOException e) {
+         log.warn("Unable to stop watching the configuration file: ", e);
+      }
+   }
+}
@@ -0,0 +1,414 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.LoadShedder;
+import org.perfcake.examples.weaver.worker.Worker;
+import org.perfcake.examples.weaver.worker.WorkerPool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A path prefix served by its own workers, thread pool and queue, so that a slow route cannot starve the others.
+ * The default route with the path / serves all the requests that do not match any other route.
+ *
+ * A route with the automatic number of threads can be adaptive. Then its number of threads is set by {@link ThreadController}
+ * according to the load, and the idle threads are released after the keep alive time.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class Route {
+
+   /**
+    * The path of the default route.
+    */
+   static final String DEFAULT_PATH = "/";
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(Route.class);
+
+   /**
+    * The path prefix without the trailing slash, or / for the default route.
+    */
+   private final String path;
+
+   /**
+    * Maximum number of requests waiting for a thread, 0 = unlimited. Cannot be changed once the executor is created.
+    */
+   private final int queueCapacity;
+
+   /**
+    * Requested number of threads, 0 = the number of workers or adaptive.
+    */
+   private int threads;
+
+   /**
+    * Whether the number of threads should be adapted to the load when it is not requested explicitly.
+    */
+   private boolean adaptive = false;
+
+   /**
+    * How long an idle thread of an adaptive route is kept in milliseconds.
+    */
+   private long keepAlive = TimeUnit.MINUTES.toMillis(1);
+
+   /**
+    * Answers the requests that could not be admitted to the executor.
+    */
+   private volatile LoadShedder loadShedder;
+
+   /**
+    * Configuration lines with the workers created according to them.
+    */
+   private volatile List<WorkerLine> lines = Collections.emptyList();
+
+   /**
+    * Workers processing requests in the order of configuration.
+    */
+   private volatile List<Worker> workers = Collections.emptyList();
+
+   /**
+    * Pool of the workers striped among the threads. Replaced as a whole when the workers change.
+    */
+   private volatile WorkerPool workerPool;
+
+   /**
+    * Number of threads actually used, the maximum number of threads for an adaptive route.
+    */
+   private volatile int poolSize;
+
+   /**
+    * Thread pool executing the workers, null until the route is started.
+    */
+   private ThreadPoolExecutor executor;
+
+   /**
+    * Workers taken out of service, closed once no retired pool has requests to process, because a worker can be shared by several of them.
+    */
+   private final Set<Worker> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+   /**
+    * Number of retired pools with requests still to be processed.
+    */
+   private int draining = 0;
+
+   /**
+    * Whether the route was closed.
+    */
+   private boolean closed = false;
+
+   /**
+    * Creates a new route.
+    *
+    * @param path
+    *       The path prefix.
+    * @param threads
+    *       Requested number of threads, 0 = the number of workers.
+    * @param queueCapacity
+    *       Maximum number of requests waiting for a thread, 0 = unlimited.
+    * @param loadShedder
+    *       Answers the requests that could not be admitted to the executor.
+    */
+   Route(final String path, final int threads, final int queueCapacity, final LoadShedder loadShedder) {
+      if (threads < 0 || queueCapacity < 0) {
+         throw new IllegalArgumentException("Number of threads and queue capacity of route " + path + " cannot be negative.");
+      }
+
+      this.path = normalize(path);
+      this.threads = threads;
+      this.queueCapacity = queueCapacity;
+      this.loadShedder = loadShedder;
+   }
+
+   /**
+    * Normalizes the path prefix so that it starts with a slash and does not end with one.
+    *
+    * @param path
+    *       The path prefix.
+    * @return The normalized path prefix.
+    */
+   static String normalize(final String path) {
+      String normalized = path.trim();
+      if (!normalized.startsWith("/")) {
+         normalized = "/" + normalized;
+      }
+      while (normalized.length() > 1 && normalized.endsWith("/")) {
+         normalized = normalized.substring(0, normalized.length() - 1);
+      }
+
+      return normalized;
+   }
+
+   /**
+    * Checks whether the request path belongs to this route, i.e. it is the path prefix or it continues with a slash after it.
+    *
+    * @param requestPath
+    *       The request path.
+    * @return True iff the request path belongs to this route.
+    */
+   boolean matches(final String requestPath) {
+      if (isDefault()) {
+         return true;
+      }
+
+      return requestPath.startsWith(path) && (requestPath.length() == path.length() || requestPath.charAt(path.length()) == '/');
+   }
+
+   /**
+    * Publishes the workers of the given lines in a new pool at once and resizes the executor to the resulting number of threads.
+    * An adaptive route keeps its current number of threads unless there are less workers now. The previous pool is retired, and its workers
+    * that are not in the new pool are closed once the requests that entered any retired pool, including the queued ones, are processed.
+    *
+    * @param newLines
+    *       The configuration lines with the workers.
+    * @param shuffle
+    *       True to shuffle the workers.
+    * @throws IllegalArgumentException
+    *       When there are no workers.
+    */
+   synchronized void publish(final List<WorkerLine> newLines, final boolean shuffle) {
+      final List<Worker> newWorkers = new ArrayList<>();
+      newLines.forEach(line -> newWorkers.addAll(line.getWorkers()));
+
+      if (newWorkers.isEmpty()) {
+         throw new IllegalArgumentException("There must be at least one worker for route " + path + ".");
+      }
+
+      final int maxThreads = newWorkers.size();
+      int newPoolSize = threads;
+      if (isAdaptive()) {
+         newPoolSize = Math.max(1, Math.min(poolSize, maxThreads));
+      } else if (newPoolSize > maxThreads || newPoolSize == 0) {
+         if (newPoolSize > maxThreads) {
+            log.warn("Maximum possible threads is " + maxThreads + ", while you requested " + threads + ". Using " + maxThreads + ".");
+         }
+         newPoolSize = maxThreads;
+      }
+
+      if (shuffle) {
+         log.info("Shuffling workers...");
+         Collections.shuffle(newWorkers);
+      }
+
+      // the threads of an adaptive route come and go, spread them as if there were the most threads possible
+      final WorkerPool newPool = new WorkerPool(newWorkers, isAdaptive() ? maxThreads : newPoolSize);
+
+      if (executor != null) {
+         executor.setKeepAliveTime(keepAlive, TimeUnit.MILLISECONDS);
+         executor.allowCoreThreadTimeOut(isAdaptive());
+         resizeExecutor(newPoolSize);
+      }
+
+      final WorkerPool oldPool = workerPool;
+
+      lines = Collections.unmodifiableList(newLines);
+      workers = Collections.unmodifiableList(newWorkers);
+      poolSize = newPoolSize;
+      workerPool = newPool;
+
+      if (oldPool != null) {
+         removed.addAll(oldPool.getWorkers());
+         newWorkers.forEach(removed::remove);
+         retire(oldPool);
+      }
+   }
+
+   /**
+    * Retires a pool that is no longer published.
+    *
+    * @param pool
+    *       The pool to retire.
+    */
+   private void retire(final WorkerPool pool) {
+      draining++;
+      pool.retire(this::drained);
+   }
+
+   /**
+    * Closes the workers taken out of service once the last retired pool is drained.
+    */
+   private synchronized void drained() {
+      if (--draining == 0) {
+         removed.forEach(Worker::close);
+         removed.clear();
+      }
+   }
+
+   /**
+    * Changes the number of threads of an adaptive route. The number of threads is limited by the number of workers.
+    *
+    * @param newPoolSize
+    *       The new number of threads.
+    * @return True iff the number of threads was changed.
+    */
+   synchronized boolean resize(final int newPoolSize) {
+      final int size = Math.max(1, Math.min(newPoolSize, workers.size()));
+      if (!isAdaptive() || executor == null || size == poolSize) {
+         return false;
+      }
+
+      resizeExecutor(size);
+      poolSize = size;
+
+      return true;
+   }
+
+   /**
+    * Resizes the executor from the current number of threads.
+    *
+    * @param newPoolSize
+    *       The new number of threads.
+    */
+   private void resizeExecutor(final int newPoolSize) {
+      // grow the maximum first and shrink the core first so that the core never exceeds the maximum
+      if (newPoolSize > poolSize) {
+         executor.setMaximumPoolSize(newPoolSize);
+         executor.setCorePoolSize(newPoolSize);
+      } else if (newPoolSize < poolSize) {
+         executor.setCorePoolSize(newPoolSize);
+         executor.setMaximumPoolSize(newPoolSize);
+      }
+   }
+
+   /**
+    * Creates the executor unless it already exists.
+    */
+   synchronized void start() {
+      if (executor == null) {
+         log.info("Creating executor for route " + path + " with " + (isAdaptive() ? "adaptive number of threads" : poolSize + " threads") + " and "
+               + (queueCapacity > 0 ? "queue capacity " + queueCapacity : "unlimited queue") + ".");
+
+         final String name = isDefault() ? "worker-thread-%d" : "worker-thread" + path.replaceAll("[^A-Za-z0-9]", "-") + "-%d";
+         executor = new ThreadPoolExecutor(poolSize, poolSize, keepAlive, TimeUnit.MILLISECONDS,
+               queueCapacity > 0 ? new LinkedBlockingQueue<>(queueCapacity) : new LinkedBlockingQueue<>(),
+               new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name).build(), loadShedder);
+         executor.allowCoreThreadTimeOut(isAdaptive());
+      }
+   }
+
+   /**
+    * Stops the executor and closes the workers once the requests already accepted are processed.
+    */
+   synchronized void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+
+      if (executor != null) {
+         executor.shutdown();
+      }
+
+      if (workerPool != null) {
+         removed.addAll(workerPool.getWorkers());
+         retire(workerPool);
+      }
+   }
+
+   /**
+    * Tells whether the number of threads is adapted to the load.
+    *
+    * @return True iff the route is adaptive and no number of threads was requested explicitly.
+    */
+   synchronized boolean isAdaptive() {
+      return adaptive && threads == 0;
+   }
+
+   boolean isDefault() {
+      return DEFAULT_PATH.equals(path);
+   }
+
+   String getPath() {
+      return path;
+   }
+
+   int getQueueCapacity() {
+      return queueCapacity;
+   }
+
+   synchronized int getThreads() {
+      return threads;
+   }
+
+   synchronized void setThreads(final int threads) {
+      this.threads = threads;
+   }
+
+   /**
+    * Sets whether the number of threads should be adapted to the load when it is not requested explicitly.
+    * Takes effect when the workers are published.
+    *
+    * @param adaptive
+    *       True to adapt the number of threads.
+    * @param keepAlive
+    *       How long an idle thread is kept in milliseconds, must be positive.
+    */
+   synchronized void setAdaptive(final boolean adaptive, final long keepAlive) {
+      if (keepAlive <= 0) {
+         throw new IllegalArgumentException("Thread keep alive time must be positive.");
+      }
+      this.adaptive = adaptive;
+      this.keepAlive = keepAlive;
+   }
+
+   LoadShedder getLoadShedder() {
+      return loadShedder;
+   }
+
+   void setLoadShedder(final LoadShedder loadShedder) {
+      this.loadShedder = loadShedder;
+      if (executor != null) {
+         executor.setRejectedExecutionHandler(loadShedder);
+      }
+   }
+
+   List<WorkerLine> getLines() {
+      return lines;
+   }
+
+   List<Worker> getWorkers() {
+      return workers;
+   }
+
+   WorkerPool getWorkerPool() {
+      return workerPool;
+   }
+
+   int getPoolSize() {
+      return poolSize;
+   }
+
+   ThreadPoolExecutor getExecutor() {
+      return executor;
+   }
+}
@@ -0,0 +1,239 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.WorkerThread;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Adapts the number of threads of the adaptive routes to the load.
+ *
+ * The executors are checked every {@value #INTERVAL} milliseconds. When the oldest request in the queue has waited longer
+ * than the target queue wait and at least three quarters of the threads are busy, the threads are added, up to twice as many
+ * as there were at once. When the requests wait while the threads are not busy, the threads wait for a CPU core and adding
+ * more of them would not help. When no request waited in the queue and at most half of the threads were busy
+ * for {@value #WINDOW} checks in a row, up to a quarter of the threads is removed so that at least twice as many threads
+ * as were busy remain.
+ * The number of threads stays between the minimum and the maximum and never exceeds the number of workers.
+ * Besides that, the idle threads of the adaptive routes time out, so an idle route holds no threads at all.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class ThreadController {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(ThreadController.class);
+
+   /**
+    * How often the executors are checked in milliseconds.
+    */
+   static final long INTERVAL = 100;
+
+   /**
+    * Number of checks with a low load needed to remove threads.
+    */
+   static final int WINDOW = 10;
+
+   /**
+    * Provides the current routes.
+    */
+   private final Supplier<List<Route>> routes;
+
+   /**
+    * Minimum number of threads per route.
+    */
+   private final int minThreads;
+
+   /**
+    * Maximum number of threads per route, 0 = the number of workers.
+    */
+   private final int maxThreads;
+
+   /**
+    * The queue wait that triggers adding threads in nanoseconds.
+    */
+   private final long targetQueueWait;
+
+   /**
+    * Observed load of the routes. Accessed only by the scheduler.
+    */
+   private final Map<Route, Load> loads = new HashMap<>();
+
+   /**
+    * Runs the checks, null until the controller is started.
+    */
+   private ScheduledExecutorService scheduler = null;
+
+   /**
+    * Creates a new controller.
+    *
+    * @param routes
+    *       Provides the current routes.
+    * @param minThreads
+    *       Minimum number of threads per route.
+    * @param maxThreads
+    *       Maximum number of threads per route, 0 = the number of workers.
+    * @param targetQueueWait
+    *       The queue wait that triggers adding threads in milliseconds.
+    */
+   ThreadController(final Supplier<List<Route>> routes, final int minThreads, final int maxThreads, final long targetQueueWait) {
+      if (minThreads < 1 || maxThreads < 0 || (maxThreads > 0 && maxThreads < minThreads) || targetQueueWait < 0) {
+         throw new IllegalArgumentException("Invalid adaptive threads settings, the minimum must be positive and not higher than the maximum.");
+      }
+
+      this.routes = routes;
+      this.minThreads = minThreads;
+      this.maxThreads = maxThreads;
+      this.targetQueueWait = TimeUnit.MILLISECONDS.toNanos(targetQueueWait);
+   }
+
+   /**
+    * Starts checking the executors periodically.
+    */
+   synchronized void start() {
+      if (scheduler == null) {
+         log.info("Adapting threads between " + minThreads + " and " + (maxThreads > 0 ? maxThreads : "the number of workers") + " with target queue wait "
+               + TimeUnit.NANOSECONDS.toMillis(targetQueueWait) + " ms.");
+         scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("thread-controller").build());
+         scheduler.scheduleWithFixedDelay(this::check, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Stops checking the executors.
+    */
+   synchronized void close() {
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+         scheduler = null;
+      }
+   }
+
+   /**
+    * Checks all the adaptive routes. Called by the scheduler.
+    */
+   private void check() {
+      try {
+         final List<Route> current = routes.get();
+         loads.keySet().retainAll(current);
+
+         for (final Route route : current) {
+            if (route.isAdaptive()) {
+               final int size = adapt(route, loads.computeIfAbsent(route, key -> new Load()), System.nanoTime());
+               if (route.resize(size)) {
+                  log.debug("Route " + route.getPath() + " now uses " + size + " threads.");
+               }
+            } else {
+               loads.remove(route);
+            }
+         }
+      } catch (RuntimeException e) {
+         log.error("Unable to adapt the number of threads: ", e);
+      }
+   }
+
+   /**
+    * Computes the number of threads a route should use according to its load.
+    *
+    * @param route
+    *       The route.
+    * @param load
+    *       The load observed since the last change.
+    * @param now
+    *       The current time in nanoseconds.
+    * @return The number of threads the route should use.
+    */
+   int adapt(final Route route, final Load load, final long now) {
+      final ThreadPoolExecutor executor = route.getExecutor();
+      final int size = route.getPoolSize();
+      if (executor == null) {
+         return size;
+      }
+
+      final int upper = maxThreads > 0 ? Math.min(maxThreads, route.getWorkers().size()) : route.getWorkers().size();
+      final int lower = Math.min(minThreads, upper);
+      final int queued = executor.getQueue().size();
+      final Object oldest = executor.getQueue().peek();
+      final long wait = oldest instanceof WorkerThread ? now - ((WorkerThread) oldest).getEnqueued() : 0;
+
+      final int active = executor.getActiveCount();
+
+      load.peakActive = Math.max(load.peakActive, active);
+      load.maxWait = Math.max(load.maxWait, queued > 0 ? Math.max(1, wait) : 0);
+      load.checks++;
+
+      int newSize = Math.max(lower, Math.min(upper, size));
+      if (queued > 0 && wait > targetQueueWait && active * 4 >= newSize * 3) {
+         newSize = Math.min(upper, newSize + Math.max(1, Math.min(queued, newSize)));
+      } else if (load.checks >= WINDOW) {
+         if (load.peakActive * 2 <= newSize && load.maxWait == 0) {
+            newSize = Math.max(lower, Math.max(load.peakActive * 2, newSize - Math.max(1, newSize / 4)));
+         }
+         load.reset();
+      }
+
+      if (newSize > size) {
+         load.reset(); // observe the new threads for a whole window before removing any
+      }
+
+      return newSize;
+   }
+
+   /**
+    * The load of a route observed since the last change.
+    */
+   static final class Load {
+
+      /**
+       * The most threads that were busy at once.
+       */
+      private int peakActive = 0;
+
+      /**
+       * The longest time the oldest queued request waited in nanoseconds, 0 when no request was queued.
+       */
+      private long maxWait = 0;
+
+      /**
+       * Number of checks.
+       */
+      private int checks = 0;
+
+      private void reset() {
+         peakActive = 0;
+         maxWait = 0;
+         checks = 0;
+      }
+   }
+}
@@ -19,13 +19,18 @@
  */
 package org.perfcake.examples.weaver;
 
-import org.perfcake.examples.weaver.worker.MapConfigurable;
+import org.perfcake.examples.weaver.bench.LoadGenerator;
+import org.perfcake.examples.weaver.metrics.Metrics;
+import org.perfcake.examples.weaver.worker.CpuBurner;
+import org.perfcake.examples.weaver.worker.CpuWorker;
+import org.perfcake.examples.weaver.worker.GroupRegistry;
+import org.perfcake.examples.weaver.worker.LoadShedder;
 import org.perfcake.examples.weaver.worker.Worker;
-import org.perfcake.util.ObjectFactory;
+import org.perfcake.examples.weaver.worker.WorkerPool;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.vertx.core.http.HttpServerOptions;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -34,18 +39,28 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Main class to start the Weaver server according to the provided configuration.
+ *
+ * The configuration can be split into sections by route headers like <code>[/orders] threads:4,queueCapacity:100,queueTimeout:50</code>.
+ * The workers following a header serve only the requests with the path prefix in their own thread pool and queue. The workers before
+ * the first header serve all the other requests with the threads and queue set on the command line.
  */
 public final class Weaver {
 
@@ -54,9 +69,24 @@ public final class Weaver {
     */
    private static final Logger log = LogManager.getLogger(Weaver.class);
 
-   @Parameter(names = { "-t", "--threads" }, description = "Number of threads, 0 = automatic based on number of workers")
+   @Parameter(names = { "-t", "--threads" }, description = "Number of threads, 0 = automatic based on number of workers or adaptive")
    private int threads = 0;
 
+   @Parameter(names = { "--adaptive-threads" }, description = "Adapt the automatic number of threads to the load", arity = 1)
+   private boolean adaptiveThreads = false;
+
+   @Parameter(names = { "--min-threads" }, description = "Minimum number of adaptive threads per route")
+   private int minThreads = 1;
+
+   @Parameter(names = { "--max-threads" }, description = "Maximum number of adaptive threads per route, 0 = number of workers")
+   private int maxThreads = 0;
+
+   @Parameter(names = { "--target-queue-wait" }, description = "Queue waiting time in milliseconds above which adaptive threads are added")
+   private long targetQueueWait = 10;
+
+   @Parameter(names = { "--thread-keep-alive" }, description = "Time in milliseconds after which idle adaptive threads are released")
+   private long threadKeepAlive = 60_000;
+
    @Parameter(names = { "-s", "--shuffle" }, description = "Shuffle the workers", arity = 1)
    private boolean shuffle = false;
 
@@ -72,15 +102,96 @@ public final class Weaver {
    @Parameter(names = { "-h", "--host" }, description = "Network host to listen on")
    private String host = "localhost";
 
+   @Parameter(names = { "-i", "--inline" }, description = "Run non-blocking workers directly on the event loop", arity = 1)
+   private boolean inline = true;
+
+   @Parameter(names = { "--server-instances" }, description = "Number of HTTP server instances (event loops) accepting requests, 0 = number of CPU cores")
+   private int serverInstances = 0;
+
+   @Parameter(names = { "--native-transport" }, description = "Use the native (epoll) network transport when available", arity = 1)
+   private boolean nativeTransport = false;
+
+   @Parameter(names = { "--h2-max-streams" }, description = "Maximum number of concurrent HTTP/2 (h2c) streams per connection")
+   private long h2MaxStreams = HttpServerOptions.DEFAULT_INITIAL_SETTINGS_MAX_CONCURRENT_STREAMS;
+
+   @Parameter(names = { "--h2-window-size" }, description = "Initial HTTP/2 stream flow control window size in bytes, 0 = protocol default")
+   private int h2WindowSize = 0;
+
+   @Parameter(names = { "--h2-connection-window-size" }, description = "HTTP/2 connection flow control window size in bytes, 0 = protocol default")
+   private int h2ConnectionWindowSize = 0;
+
+   @Parameter(names = { "--streaming" }, description = "Stream request bodies to the workers instead of buffering them in memory", arity = 1)
+   private boolean streaming = false;
+
+   @Parameter(names = { "--max-body-size" }, description = "Maximum request body size in bytes, -1 = unlimited")
+   private long maxBodySize = -1;
+
+   @Parameter(names = { "-m", "--metrics" }, description = "Publish metrics in the Prometheus format on " + Metrics.PATH, arity = 1)
+   private boolean metricsEnabled = true;
+
+   @Parameter(names = { "-a", "--admin" }, description = "Publish the unauthenticated administration endpoints on " + AdminHandler.PATH, arity = 1)
+   private boolean adminEnabled = false;
+
+   @Parameter(names = { "-q", "--queue-capacity" }, description = "Maximum number of requests waiting for a thread, 0 = unlimited")
+   private int queueCapacity = 0;
+
+   @Parameter(names = { "--queue-timeout" }, description = "Maximum time in milliseconds a request can wait for a thread, 0 = unlimited")
+   private long queueTimeout = 0;
+
+   @Parameter(names = { "--reject-status" }, description = "Status code returned for requests rejected due to overload")
+   private int rejectStatus = 503;
+
+   @Parameter(names = { "--retry-after" }, description = "Retry-After header value in seconds returned for rejected requests, 0 = no header")
+   private int retryAfter = 1;
+
+   @Parameter(names = { "-w", "--watch" }, description = "Reload the configuration when the configuration file changes", arity = 1)
+   private boolean watch = false;
+
+   @Parameter(names = { "--bench" }, description = "Benchmark the configuration with the built-in load generator over loopback and exit")
+   private boolean bench = false;
+
+   @Parameter(names = { "--bench-duration" }, description = "Benchmark measurement time in seconds")
+   private int benchDuration = 30;
+
+   @Parameter(names = { "--bench-warmup" }, description = "Benchmark warm-up time in seconds")
+   private int benchWarmup = 5;
+
+   @Parameter(names = { "--bench-concurrency" }, description = "Benchmark requests in flight (closed loop), or maximum connections (open loop)")
+   private int benchConcurrency = 64;
+
+   @Parameter(names = { "--bench-rate" }, description = "Benchmark request rate per second for the open loop, 0 = closed loop")
+   private int benchRate = 0;
+
+   @Parameter(names = { "--bench-path" }, description = "Benchmark request path")
+   private String benchPath = "/";
+
+   @Parameter(names = { "--bench-protocol" }, description = "Benchmark protocol: http1, pipelined (HTTP/1.1 pipelining) or h2c (HTTP/2 over cleartext)")
+   private String benchProtocol = "http1";
+
+   /**
+    * Route header in the configuration file, the path prefix in brackets optionally followed by the route settings.
+    */
+   private static final Pattern ROUTE_HEADER = Pattern.compile("^\\[([^\\]]+)\\](.*)$");
+
+   /**
+    * Routes with their own workers and executors, from the longest path prefix to the default route. Replaced as a whole when the configuration is reloaded.
+    */
+   private volatile List<Route> routes = Collections.emptyList();
+
+   /**
+    * Metrics registry, null when the metrics are disabled.
+    */
+   private Metrics metrics;
+
    /**
-    * Workers processing requests.
+    * Adapts the number of threads of the routes to the load, null when the threads are not adaptive.
     */
-   private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+   private ThreadController threadController;
 
    /**
-    * Thread pool executing the workers.
+    * When the initialization started in nanoseconds.
     */
-   private ThreadPoolExecutor executor;
+   private long initStart;
 
    /**
     * Starts the server.
@@ -116,95 +227,412 @@ public final class Weaver {
     *       When it was not possible to parse the configuration.
     */
    public void init() throws IOException {
-      int maxThreads = Files.lines(Paths.get(config)).collect(Collectors.summingInt(this::parseWorker));
-      if (threads > maxThreads || threads == 0) {
-         if (threads > maxThreads) {
-            log.warn("Maximum possible threads is " + maxThreads + ", while you requested " + threads + ". Using " + maxThreads + ".");
+      initStart = System.nanoTime();
+      if (adaptiveThreads) {
+         threadController = new ThreadController(this::getRoutes, minThreads, maxThreads, targetQueueWait);
+      }
+      load();
+
+      if (threadController != null) {
+         threadController.start();
+      }
+
+      if (metricsEnabled) {
+         metrics = new Metrics(this::getExecutors);
+      }
+   }
+
+   /**
+    * Reloads the configuration while the server is running. The new workers are created first and then they replace the old ones at once.
+    * The requests already being processed or waiting in the queue are finished by the old workers, which are closed afterwards.
+    * The executors of the routes that stay in place are resized to the new number of threads, the routes that were removed or whose queue capacity changed
+    * get their executors stopped once the accepted requests are processed. When the new configuration cannot be loaded, the old one stays in place.
+    *
+    * @return True iff the configuration was reloaded.
+    */
+   public synchronized boolean reload() {
+      try {
+         load();
+      } catch (IOException | RuntimeException e) {
+         log.error("Unable to reload the configuration, keeping the previous one: ", e);
+         return false;
+      }
+
+      log.info("Reloaded configuration with " + routes.size() + " routes, " + routes.stream().mapToInt(route -> route.getWorkers().size()).sum() + " workers and "
+            + routes.stream().mapToInt(Route::getPoolSize).sum() + " threads.");
+
+      return true;
+   }
+
+   /**
+    * Changes the requested number of threads of the default route while the server is running. The number of threads can never be higher than the number of workers.
+    *
+    * @param threads
+    *       The requested number of threads, 0 = the number of workers.
+    */
+   public void updateThreads(final int threads) {
+      updateThreads(Route.DEFAULT_PATH, threads);
+   }
+
+   /**
+    * Changes the requested number of threads of a route while the server is running. The number of threads can never be higher than the number of workers.
+    *
+    * @param path
+    *       The path prefix of the route.
+    * @param threads
+    *       The requested number of threads, 0 = the number of workers.
+    */
+   public synchronized void updateThreads(final String path, final int threads) {
+      if (threads < 0) {
+         throw new IllegalArgumentException("Number of threads cannot be negative.");
+      }
+
+      final Route route = requireRoute(path);
+      if (route.isDefault()) {
+         this.threads = threads;
+      }
+      route.setThreads(threads);
+      route.publish(route.getLines(), shuffle);
+   }
+
+   /**
+    * Changes whether the workers of all the routes are shuffled while the server is running.
+    *
+    * @param shuffle
+    *       True to shuffle the workers, false to keep them in the order of configuration.
+    */
+   public synchronized void updateShuffle(final boolean shuffle) {
+      this.shuffle = shuffle;
+      routes.forEach(route -> route.publish(route.getLines(), shuffle));
+   }
+
+   /**
+    * Changes the number of workers created from a configuration line of the default route while the server is running.
+    * The workers of the other lines are kept.
+    *
+    * @param line
+    *       Index of the line among the lines defining workers, starting from 0.
+    * @param multiplicity
+    *       The requested number of workers.
+    * @throws ReflectiveOperationException
+    *       When it was not possible to create the workers.
+    */
+   public void updateMultiplicity(final int line, final int multiplicity) throws ReflectiveOperationException {
+      updateMultiplicity(Route.DEFAULT_PATH, line, multiplicity);
+   }
+
+   /**
+    * Changes the number of workers created from a configuration line of a route while the server is running.
+    * The workers of the other lines are kept. The removed workers are closed once the requests already accepted are processed.
+    *
+    * @param path
+    *       The path prefix of the route.
+    * @param line
+    *       Index of the line among the lines of the route defining workers, starting from 0.
+    * @param multiplicity
+    *       The requested number of workers.
+    * @throws ReflectiveOperationException
+    *       When it was not possible to create the workers.
+    */
+   public synchronized void updateMultiplicity(final String path, final int line, final int multiplicity) throws ReflectiveOperationException {
+      final Route route = requireRoute(path);
+      final List<WorkerLine> lines = route.getLines();
+
+      if (line < 0 || line >= lines.size()) {
+         throw new IllegalArgumentException("There is no worker line " + line + " in route " + route.getPath() + ".");
+      }
+
+      final WorkerLine workerLine = lines.get(line);
+      if (multiplicity <= 0 && route.getWorkers().size() == workerLine.getMultiplicity()) {
+         throw new IllegalArgumentException("There must be at least one worker.");
+      }
+
+      try {
+         workerLine.setMultiplicity(multiplicity);
+      } finally {
+         // the removed workers are closed once the requests that entered the previous pool are processed
+         route.publish(lines, shuffle);
+      }
+   }
+
+   /**
+    * Creates the workers according to the configuration file and publishes them in their routes.
+    * The routes with the same path prefix and queue capacity keep their executors.
+    *
+    * @throws IOException
+    *       When it was not possible to read the configuration.
+    */
+   private synchronized void load() throws IOException {
+      final long start = System.nanoTime();
+      final Map<String, Properties> settings = new LinkedHashMap<>();
+      final Map<String, List<WorkerLine>> sections = new LinkedHashMap<>();
+      settings.put(Route.DEFAULT_PATH, new Properties());
+      sections.put(Route.DEFAULT_PATH, new ArrayList<>());
+
+      // split the worker lines among the routes, the route headers are parsed right away
+      final List<String> workerLines = new ArrayList<>();
+      final List<String> workerSections = new ArrayList<>();
+      String section = Route.DEFAULT_PATH;
+      for (final String configLine : Files.readAllLines(Paths.get(config))) {
+         final Matcher header = ROUTE_HEADER.matcher(configLine.trim());
+         if (header.matches()) {
+            section = Route.normalize(header.group(1));
+            parseRouteSettings(header.group(2), settings.computeIfAbsent(section, key -> new Properties()));
+            sections.computeIfAbsent(section, key -> new ArrayList<>());
+         } else {
+            workerLines.add(configLine);
+            workerSections.add(section);
          }
-         threads = maxThreads;
       }
+      final long read = System.nanoTime();
 
-      if (shuffle) {
-         log.info("Shuffling workers...");
+      // the lines are independent, parse them and create their workers in parallel while keeping their order
+      final List<WorkerLine> parsed = IntStream.range(0, workerLines.size()).parallel()
+            .mapToObj(i -> WorkerLine.parse(workerSections.get(i), workerLines.get(i))).collect(Collectors.toList());
+      final long compiled = System.nanoTime();
 
-         final List<Worker> workersList = workers.stream().collect(Collectors.toList());
-         Collections.shuffle(workersList);
-         workers.clear();
-         workersList.forEach(workers::offer);
+      // the workers are created in parallel, so the CPU work must be calibrated before while the other threads are idle
+      if (parsed.stream().anyMatch(line -> line != null && line.uses(CpuWorker.class))) {
+         CpuBurner.calibrate();
       }
 
-      log.info("Creating executor with " + threads + " threads.");
+      GroupRegistry.begin();
+      try {
+         parsed.parallelStream().filter(Objects::nonNull).forEach(WorkerLine::create);
+         final long created = System.nanoTime();
+
+         for (int i = 0; i < parsed.size(); i++) {
+            if (parsed.get(i) != null) {
+               sections.get(workerSections.get(i)).add(parsed.get(i));
+            }
+         }
+
+         publish(sections, settings);
+         GroupRegistry.commit();
+
+         final long published = System.nanoTime();
+         log.info(String.format("Loaded %d workers from %d lines in %d ms (reading %d ms, parsing %d ms, creating workers %d ms, starting routes %d ms).",
+               routes.stream().mapToInt(route -> route.getWorkers().size()).sum(), sections.values().stream().mapToInt(List::size).sum(), millis(start, published),
+               millis(start, read), millis(read, compiled), millis(compiled, created), millis(created, published)));
+      } catch (RuntimeException e) {
+         GroupRegistry.rollback();
+         parsed.stream().filter(Objects::nonNull).forEach(WorkerLine::close);
+         throw e;
+      }
+   }
 
-      executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("worker-thread-%d").build());
+   /**
+    * Computes the time between two instants in milliseconds.
+    *
+    * @param from
+    *       The first instant in nanoseconds.
+    * @param to
+    *       The second instant in nanoseconds.
+    * @return The time in milliseconds.
+    */
+   private static long millis(final long from, final long to) {
+      return TimeUnit.NANOSECONDS.toMillis(to - from);
    }
 
    /**
-    * Parses worker configuration line.
+    * Parses the settings of a route from its header.
     *
-    * @param configLine
-    *       The configuration line.
-    * @return The number of worker instances created.
+    * @param header
+    *       The rest of the route header after the path prefix.
+    * @param settings
+    *       The settings to fill in.
+    * @throws IllegalArgumentException
+    *       When there is an unknown setting or its value is not a non-negative number.
     */
-   private int parseWorker(final String configLine) {
-      if (configLine != null && !configLine.isEmpty() && !configLine.startsWith("#")) {
-         final String[] spaceSplit = configLine.split(" ", 2);
-         final String[] equalsSplit = spaceSplit[1].split("=", 2);
-         final int count = Integer.parseInt(StringUtils.strip(spaceSplit[0], " x"));
-         String clazz = StringUtils.strip(equalsSplit[0]);
-         clazz = clazz.contains(".") ? clazz : "org.perfcake.examples.weaver.worker." + clazz;
-         final String[] propertiesConfig = StringUtils.stripAll(StringUtils.strip(equalsSplit[1]).split(","));
-         final Properties properties = new Properties();
-         final Properties mapProperties = new Properties();
-         for (final String property : propertiesConfig) {
-            final String[] keyValue = StringUtils.stripAll(property.split(":", 2));
-            if (keyValue[0].matches("worker[0-9][0-9]*_.*")) {
-               mapProperties.setProperty(keyValue[0], keyValue[1]);
+   private static void parseRouteSettings(final String header, final Properties settings) {
+      for (final String setting : StringUtils.stripAll(StringUtils.split(header, ','))) {
+         final String[] keyValue = StringUtils.stripAll(setting.split(":", 2));
+         if (keyValue.length != 2 || !("threads".equals(keyValue[0]) || "queueCapacity".equals(keyValue[0]) || "queueTimeout".equals(keyValue[0]))) {
+            throw new IllegalArgumentException("Unknown route setting '" + setting + "', use threads, queueCapacity or queueTimeout.");
+         }
+         if (!keyValue[1].matches("[0-9]{1,9}")) {
+            throw new IllegalArgumentException("Route setting " + keyValue[0] + " must be a non-negative number, got " + keyValue[1] + ".");
+         }
+         settings.setProperty(keyValue[0], keyValue[1]);
+      }
+   }
+
+   /**
+    * Publishes the workers in their routes at once and resizes the executors to the resulting number of threads.
+    *
+    * @param sections
+    *       The configuration lines with the workers per route path prefix.
+    * @param settings
+    *       The route settings per path prefix.
+    * @throws IllegalArgumentException
+    *       When there are no workers or a route has no workers.
+    */
+   private void publish(final Map<String, List<WorkerLine>> sections, final Map<String, Properties> settings) {
+      // check everything first so that a broken configuration does not touch the running routes
+      sections.forEach((path, lines) -> {
+         if (lines.stream().allMatch(line -> line.getMultiplicity() == 0) && !(Route.DEFAULT_PATH.equals(path) && lines.isEmpty() && sections.size() > 1)) {
+            throw new IllegalArgumentException("There must be at least one worker" + (Route.DEFAULT_PATH.equals(path) ? "." : " for route " + path + "."));
+         }
+      });
+
+      final Map<String, Route> oldRoutes = new LinkedHashMap<>();
+      routes.forEach(route -> oldRoutes.put(route.getPath(), route));
+
+      final List<Route> newRoutes = new ArrayList<>();
+      sections.forEach((path, lines) -> {
+         if (!lines.isEmpty()) {
+            final boolean isDefault = Route.DEFAULT_PATH.equals(path);
+            final Properties routeSettings = settings.get(path);
+            final int routeThreads = Integer.parseInt(routeSettings.getProperty("threads", String.valueOf(isDefault ? threads : 0)));
+            final int routeQueueCapacity = Integer.parseInt(routeSettings.getProperty("queueCapacity", String.valueOf(queueCapacity)));
+            final long routeQueueTimeout = Long.parseLong(routeSettings.getProperty("queueTimeout", String.valueOf(queueTimeout)));
+            final LoadShedder routeLoadShedder = new LoadShedder(rejectStatus, retryAfter, routeQueueTimeout);
+
+            Route route = oldRoutes.get(path);
+            if (route != null && route.getQueueCapacity() == routeQueueCapacity) {
+               oldRoutes.remove(path);
+               route.setThreads(routeThreads);
+               route.setLoadShedder(routeLoadShedder);
             } else {
-               properties.setProperty(keyValue[0], keyValue[1]);
+               route = new Route(path, routeThreads, routeQueueCapacity, routeLoadShedder);
             }
+            route.setAdaptive(adaptiveThreads, threadKeepAlive);
+
+            newRoutes.add(route);
          }
+      });
 
-         try {
-            log.info("Summoning " + count + " instances of " + clazz + " with properties " + properties + " and map properties " + mapProperties);
-            for (int i = 0; i < count; i++) {
-               final Worker worker = (Worker) ObjectFactory.summonInstance(clazz, properties);
-
-               boolean add = true;
-               if (worker instanceof MapConfigurable) {
-                  add = ((MapConfigurable) worker).configure(mapProperties);
-               }
-
-               if (add) {
-                  workers.add(worker);
-               } else {
-                  log.warn("Bad configuration. Skipping worker " + clazz);
-               }
-            }
+      for (final Route route : newRoutes) {
+         route.publish(sections.get(route.getPath()), shuffle);
+         route.start();
+      }
+
+      // the longest path prefix must be matched first
+      newRoutes.sort(Comparator.comparingInt((Route route) -> route.getPath().length()).reversed());
+      routes = Collections.unmodifiableList(newRoutes);
 
-            return count;
-         } catch (ReflectiveOperationException e) {
-            log.error("Unable to parse line '" + configLine + "': ", e);
+      oldRoutes.values().forEach(Route::close);
+   }
+
+   /**
+    * Finds the route serving the request path.
+    *
+    * @param requestPath
+    *       The request path.
+    * @return The route with the longest matching path prefix, or null when there is no such route.
+    */
+   Route route(final String requestPath) {
+      for (final Route route : routes) {
+         if (route.matches(requestPath)) {
+            return route;
          }
       }
 
-      return 0;
+      return null;
+   }
+
+   /**
+    * Gets the route with the given path prefix.
+    *
+    * @param path
+    *       The path prefix.
+    * @return The route, or null when there is no such route.
+    */
+   Route getRoute(final String path) {
+      final String normalized = Route.normalize(path);
+      for (final Route route : routes) {
+         if (route.getPath().equals(normalized)) {
+            return route;
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Gets the route with the given path prefix.
+    *
+    * @param path
+    *       The path prefix.
+    * @return The route.
+    * @throws IllegalArgumentException
+    *       When there is no such route.
+    */
+   private Route requireRoute(final String path) {
+      final Route route = getRoute(path);
+      if (route == null) {
+         throw new IllegalArgumentException("There is no route " + path + ".");
+      }
+
+      return route;
    }
 
    /**
     * Starts the server.
     */
    public void run() {
-      final WeaverServer server = new WeaverServer(workers, executor, port, host);
-      log.info("Started server listening on " + host + ":" + port);
+      final long serverStart = System.nanoTime();
+      final WeaverServer server = new WeaverServer(this);
+      final long started = System.nanoTime();
+      log.info("Started server listening on " + host + ":" + port + " in " + millis(serverStart, started) + " ms, startup took " + millis(initStart, started) + " ms.");
+
+      ConfigWatcher watcher = null;
+      if (watch && !bench) {
+         try {
+            watcher = new ConfigWatcher(this);
+         } catch (IOException e) {
+            log.warn("Unable to watch the configuration file for changes: ", e);
+         }
+      }
+
+      if (bench) {
+         try {
+            new LoadGenerator("0.0.0.0".equals(host) ? "localhost" : host, port, benchPath, benchConcurrency, benchRate,
+                  LoadGenerator.Protocol.valueOf(benchProtocol.toUpperCase(Locale.ROOT))).run(benchWarmup, benchDuration, System.out);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         } finally {
+            close(server);
+         }
+         return;
+      }
+
       log.info("Press Ctrl+C to terminate...");
       try {
          System.in.read();
       } catch (IOException ioe) {
          log.error("Unable to read standard input: ", ioe);
       } finally {
-         server.close();
+         if (watcher != null) {
+            watcher.close();
+         }
+         close(server);
+      }
+   }
+
+   /**
+    * Stops the server and then the routes and their workers.
+    *
+    * @param server
+    *       The server to stop.
+    */
+   private void close(final WeaverServer server) {
+      server.close();
+      close();
+   }
+
+   /**
+    * Stops the thread controller, the executors of all the routes and closes all the workers the same way as a reload closes
+    * the replaced ones. The requests already accepted are still processed.
+    */
+   public synchronized void close() {
+      if (threadController != null) {
+         threadController.close();
       }
+
+      final List<Route> closed = routes;
+      routes = Collections.emptyList();
+      closed.forEach(Route::close);
    }
 
    public int getThreads() {
@@ -215,6 +643,46 @@ public final class Weaver {
       this.threads = threads;
    }
 
+   public boolean isAdaptiveThreads() {
+      return adaptiveThreads;
+   }
+
+   public void setAdaptiveThreads(final boolean adaptiveThreads) {
+      this.adaptiveThreads = adaptiveThreads;
+   }
+
+   public int getMinThreads() {
+      return minThreads;
+   }
+
+   public void setMinThreads(final int minThreads) {
+      this.minThreads = minThreads;
+   }
+
+   public int getMaxThreads() {
+      return maxThreads;
+   }
+
+   public void setMaxThreads(final int maxThreads) {
+      this.maxThreads = maxThreads;
+   }
+
+   public long getTargetQueueWait() {
+      return targetQueueWait;
+   }
+
+   public void setTargetQueueWait(final long targetQueueWait) {
+      this.targetQueueWait = targetQueueWait;
+   }
+
+   public long getThreadKeepAlive() {
+      return threadKeepAlive;
+   }
+
+   public void setThreadKeepAlive(final long threadKeepAlive) {
+      this.threadKeepAlive = threadKeepAlive;
+   }
+
    public boolean isShuffle() {
       return shuffle;
    }
@@ -247,7 +715,229 @@ public final class Weaver {
       this.host = host;
    }
 
-   public Queue<Worker> getWorkers() {
-      return workers;
+   public boolean isInline() {
+      return inline;
+   }
+
+   public void setInline(final boolean inline) {
+      this.inline = inline;
+   }
+
+   public int getServerInstances() {
+      return serverInstances;
+   }
+
+   public void setServerInstances(final int serverInstances) {
+      this.serverInstances = serverInstances;
+   }
+
+   public boolean isNativeTransport() {
+      return nativeTransport;
+   }
+
+   public void setNativeTransport(final boolean nativeTransport) {
+      this.nativeTransport = nativeTransport;
+   }
+
+   public long getH2MaxStreams() {
+      return h2MaxStreams;
+   }
+
+   public void setH2MaxStreams(final long h2MaxStreams) {
+      this.h2MaxStreams = h2MaxStreams;
+   }
+
+   public int getH2WindowSize() {
+      return h2WindowSize;
+   }
+
+   public void setH2WindowSize(final int h2WindowSize) {
+      this.h2WindowSize = h2WindowSize;
+   }
+
+   public int getH2ConnectionWindowSize() {
+      return h2ConnectionWindowSize;
+   }
+
+   public void setH2ConnectionWindowSize(final int h2ConnectionWindowSize) {
+      this.h2ConnectionWindowSize = h2ConnectionWindowSize;
+   }
+
+   public boolean isStreaming() {
+      return streaming;
+   }
+
+   public void setStreaming(final boolean streaming) {
+      this.streaming = streaming;
+   }
+
+   public long getMaxBodySize() {
+      return maxBodySize;
+   }
+
+   public void setMaxBodySize(final long maxBodySize) {
+      this.maxBodySize = maxBodySize;
+   }
+
+   public boolean isMetricsEnabled() {
+      return metricsEnabled;
+   }
+
+   public void setMetricsEnabled(final boolean metricsEnabled) {
+      this.metricsEnabled = metricsEnabled;
+   }
+
+   public boolean isAdminEnabled() {
+      return adminEnabled;
+   }
+
+   public void setAdminEnabled(final boolean adminEnabled) {
+      this.adminEnabled = adminEnabled;
+   }
+
+   public int getQueueCapacity() {
+      return queueCapacity;
+   }
+
+   public void setQueueCapacity(final int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+   }
+
+   public long getQueueTimeout() {
+      return queueTimeout;
+   }
+
+   public void setQueueTimeout(final long queueTimeout) {
+      this.queueTimeout = queueTimeout;
+   }
+
+   public int getRejectStatus() {
+      return rejectStatus;
+   }
+
+   public void setRejectStatus(final int rejectStatus) {
+      this.rejectStatus = rejectStatus;
+   }
+
+   public int getRetryAfter() {
+      return retryAfter;
+   }
+
+   public void setRetryAfter(final int retryAfter) {
+      this.retryAfter = retryAfter;
+   }
+
+   public boolean isWatch() {
+      return watch;
+   }
+
+   public void setWatch(final boolean watch) {
+      this.watch = watch;
+   }
+
+   public boolean isBench() {
+      return bench;
+   }
+
+   public void setBench(final boolean bench) {
+      this.bench = bench;
+   }
+
+   public int getBenchDuration() {
+      return benchDuration;
+   }
+
+   public void setBenchDuration(final int benchDuration) {
+      this.benchDuration = benchDuration;
+   }
+
+   public int getBenchWarmup() {
+      return benchWarmup;
+   }
+
+   public void setBenchWarmup(final int benchWarmup) {
+      this.benchWarmup = benchWarmup;
+   }
+
+   public int getBenchConcurrency() {
+      return benchConcurrency;
+   }
+
+   public void setBenchConcurrency(final int benchConcurrency) {
+      this.benchConcurrency = benchConcurrency;
+   }
+
+   public int getBenchRate() {
+      return benchRate;
+   }
+
+   public void setBenchRate(final int benchRate) {
+      this.benchRate = benchRate;
+   }
+
+   public String getBenchPath() {
+      return benchPath;
+   }
+
+   public void setBenchPath(final String benchPath) {
+      this.benchPath = benchPath;
+   }
+
+   public String getBenchProtocol() {
+      return benchProtocol;
+   }
+
+   public void setBenchProtocol(final String benchProtocol) {
+      this.benchProtocol = benchProtocol;
+   }
+
+   public List<Worker> getWorkers() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? Collections.emptyList() : route.getWorkers();
+   }
+
+   public int getPoolSize() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? 0 : route.getPoolSize();
+   }
+
+   List<WorkerLine> getLines() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? Collections.emptyList() : route.getLines();
+   }
+
+   public WorkerPool getWorkerPool() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? null : route.getWorkerPool();
+   }
+
+   public ThreadPoolExecutor getExecutor() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? null : route.getExecutor();
+   }
+
+   public LoadShedder getLoadShedder() {
+      final Route route = getRoute(Route.DEFAULT_PATH);
+      return route == null ? null : route.getLoadShedder();
+   }
+
+   List<Route> getRoutes() {
+      return routes;
+   }
+
+   /**
+    * Gets the executors of all the routes.
+    *
+    * @return The executors by the route path prefixes.
+    */
+   public Map<String, ThreadPoolExecutor> getExecutors() {
+      final Map<String, ThreadPoolExecutor> executors = new LinkedHashMap<>();
+      routes.forEach(route -> executors.put(route.getPath(), route.getExecutor()));
+
+      return executors;
+   }
+
+   public Metrics getMetrics() {
+      return metrics;
    }
 }
\ No newline at end of file
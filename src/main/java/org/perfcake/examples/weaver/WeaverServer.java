@@ -19,17 +19,27 @@
  */
 package org.perfcake.examples.weaver;
 
+import org.perfcake.examples.weaver.metrics.Metrics;
+import org.perfcake.examples.weaver.worker.BodyStream;
 import org.perfcake.examples.weaver.worker.Worker;
+import org.perfcake.examples.weaver.worker.WorkerPool;
 import org.perfcake.examples.weaver.worker.WorkerThread;
 
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
-import io.vertx.core.http.HttpServer;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.util.Queue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Weaver HTTP server.
@@ -37,66 +47,216 @@ import java.util.concurrent.ThreadPoolExecutor;
 public final class WeaverServer {
 
    /**
-    * The HTTP server.
+    * My logger.
     */
-   private final HttpServer server;
+   private static final Logger log = LogManager.getLogger(WeaverServer.class);
 
    /**
-    * The thread which runs the server.
+    * How long to wait for the server instances to start in seconds.
     */
-   private final Thread serverThread;
+   private static final int START_TIMEOUT = 30;
 
    /**
-    * Queue of workers ready to process requests.
+    * Vert.x instance running the HTTP server instances.
     */
-   private final Queue<Worker> workers;
+   private final Vertx vertx;
 
    /**
-    * Thread pool executing the workers.
+    * Weaver configuration providing the current routes.
     */
-   private final ThreadPoolExecutor executor;
+   private final Weaver weaver;
 
    /**
-    * Initializes and starts the HTTP server.
+    * Whether non-blocking workers should be run directly on the event loop.
+    */
+   private final boolean inline;
+
+   /**
+    * Metrics registry, null when the metrics are disabled.
+    */
+   private final Metrics metrics;
+
+   /**
+    * Administration endpoints, null when they are disabled.
+    */
+   private final AdminHandler admin;
+
+   /**
+    * Handler preparing the request body.
+    */
+   private final Handler<RoutingContext> bodyHandler;
+
+   /**
+    * Initializes and starts the HTTP server. Waits until all the server instances are listening.
+    *
+    * @param weaver
+    *       Weaver configuration with initialized routes.
+    * @throws IllegalStateException
+    *       When it was not possible to start the server.
+    */
+   WeaverServer(final Weaver weaver) {
+      this.weaver = weaver;
+      this.inline = weaver.isInline();
+      this.metrics = weaver.getMetrics();
+      this.admin = weaver.isAdminEnabled() ? new AdminHandler(weaver) : null;
+
+      final int instances = weaver.getServerInstances() > 0 ? weaver.getServerInstances() : Runtime.getRuntime().availableProcessors();
+      vertx = Vertx.vertx(new VertxOptions()
+            .setEventLoopPoolSize(Math.max(instances, VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE))
+            .setPreferNativeTransport(weaver.isNativeTransport()));
+
+      if (weaver.isNativeTransport() && !vertx.isNativeTransportEnabled()) {
+         log.warn("Native transport is not available, using the default one.");
+      }
+
+      if (inline) {
+         weaver.getRoutes().stream().filter(route -> route.getWorkerPool().isNonBlocking()).forEach(route ->
+               log.info("All workers of route " + route.getPath() + " are non-blocking, running them directly on the event loop."));
+      }
+
+      if (weaver.isStreaming()) {
+         log.info("Streaming request bodies without buffering.");
+         bodyHandler = BodyStream.handler(weaver.getMaxBodySize());
+      } else {
+         bodyHandler = BodyHandler.create().setBodyLimit(weaver.getMaxBodySize());
+      }
+
+      final HttpServerOptions options = createServerOptions(weaver);
+
+      log.info("Starting " + instances + " server instances" + (vertx.isNativeTransportEnabled() ? " with native transport." : "."));
+      final CountDownLatch started = new CountDownLatch(instances);
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+      for (int i = 0; i < instances; i++) {
+         vertx.deployVerticle(new WeaverVerticle(this::createRouter, options), result -> {
+            if (result.failed()) {
+               failure.compareAndSet(null, result.cause());
+            }
+            started.countDown();
+         });
+      }
+
+      try {
+         if (!started.await(START_TIMEOUT, TimeUnit.SECONDS)) {
+            failure.compareAndSet(null, new IllegalStateException("Timeout while waiting for the server to start."));
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         failure.compareAndSet(null, e);
+      }
+
+      if (failure.get() != null) {
+         vertx.close();
+         throw new IllegalStateException("Unable to start the server.", failure.get());
+      }
+   }
+
+   /**
+    * Creates the HTTP server options. HTTP/2 over cleartext is accepted both by upgrade and with prior knowledge.
+    * Pipelined HTTP/1.1 requests are always accepted, they are processed in order and the responses written during
+    * one read from the connection are flushed together.
+    *
+    * @param weaver
+    *       Weaver configuration.
+    * @return The HTTP server options.
+    */
+   static HttpServerOptions createServerOptions(final Weaver weaver) {
+      final HttpServerOptions options = new HttpServerOptions()
+            .setPort(weaver.getPort())
+            .setHost(weaver.getHost());
+
+      final Http2Settings settings = options.getInitialSettings();
+      settings.setMaxConcurrentStreams(weaver.getH2MaxStreams());
+      if (weaver.getH2WindowSize() > 0) {
+         settings.setInitialWindowSize(weaver.getH2WindowSize());
+      }
+      if (weaver.getH2ConnectionWindowSize() > 0) {
+         options.setHttp2ConnectionWindowSize(weaver.getH2ConnectionWindowSize());
+      }
+
+      log.info("HTTP/2 allows " + settings.getMaxConcurrentStreams() + " concurrent streams per connection with stream window size "
+            + settings.getInitialWindowSize() + " and connection window size " + (options.getHttp2ConnectionWindowSize() > 0 ? options.getHttp2ConnectionWindowSize() : "default") + ".");
+
+      return options;
+   }
+
+   /**
+    * Creates a router for a server instance.
     *
-    * @param workers
-    *       Queue of workers.
-    * @param executor
-    *       Thread pool for executing the workers.
-    * @param port
-    *       Port where to listen.
-    * @param host
-    *       Host where to bind.
+    * @param vertx
+    *       Vert.x instance.
+    * @return The router handling all the requests.
     */
-   WeaverServer(final Queue<Worker> workers, final ThreadPoolExecutor executor, final int port, final String host) {
-      this.workers = workers;
-      this.executor = executor;
-      final Vertx vertx = Vertx.vertx();
-      server = vertx.createHttpServer();
+   private Router createRouter(final Vertx vertx) {
       final Router router = Router.router(vertx);
-      router.route().handler(BodyHandler.create());
+
+      if (admin != null) {
+         admin.register(router);
+      }
+
+      if (metrics != null) {
+         router.get(Metrics.PATH).handler(metrics.scrapeHandler());
+         router.route().handler(metrics.handler());
+      }
+
+      router.route().handler(bodyHandler);
       router.route().handler(this::handle);
-      serverThread = new Thread(() -> server.requestHandler(router::accept).listen(port, host));
-      serverThread.setDaemon(true);
-      serverThread.setName("weaver-server");
-      serverThread.start();
+
+      return router;
    }
 
    /**
-    * Handles an incoming request and submits it for execution.
+    * Handles an incoming request with the current pool of workers of the route with the longest matching path prefix.
+    * When all the workers are non-blocking, the request is processed directly in the calling event loop thread unless all the workers are in use.
+    * Otherwise, it is submitted for execution to the executor of the route. When the route or its workers were replaced meanwhile
+    * and its executor was shut down or its pool retired, the request is handled again by the current route and its workers.
+    * When there is no matching route, the request is not found.
     *
     * @param context
     *       HTTP routing context.
     */
    private void handle(final RoutingContext context) {
-      final WorkerThread workerThread = new WorkerThread(workers, context);
-      executor.submit(workerThread);
+      final Route route = weaver.route(context.normalisedPath());
+      if (route == null) {
+         context.next();
+         return;
+      }
+
+      if (!route.isDefault()) {
+         WorkerThread.setRoutePath(context, route.getPath());
+      }
+
+      final WorkerPool workers = route.getWorkerPool();
+      if (inline && workers.isNonBlocking() && workers.enter()) {
+         try {
+            final Worker w = workers.tryCheckout();
+            if (w != null) {
+               try {
+                  WorkerThread.process(w, context);
+               } finally {
+                  workers.release(w);
+               }
+               return;
+            }
+         } finally {
+            workers.exit();
+         }
+      }
+
+      try {
+         new WorkerThread(workers, context, route.getLoadShedder()).submit(route.getExecutor());
+      } catch (RejectedExecutionException e) {
+         if (weaver.route(context.normalisedPath()) != route || route.getWorkerPool() != workers) {
+            handle(context);
+         } else { // the server is being stopped
+            route.getLoadShedder().shed(context);
+         }
+      }
    }
 
    /**
     * Stops the HTTP server.
     */
    void close() {
-      server.close();
+      vertx.close();
    }
 }
\ No newline at end of file
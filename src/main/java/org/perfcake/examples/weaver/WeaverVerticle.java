@@ -0,0 +1,73 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.ext.web.Router;
+
+import java.util.function.Function;
+
+/**
+ * One instance of the HTTP server running on its own event loop. All the instances listen on the same port
+ * and Vert.x distributes the incoming connections among them.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class WeaverVerticle extends AbstractVerticle {
+
+   /**
+    * Creates the router handling the requests of this instance.
+    */
+   private final Function<Vertx, Router> routerFactory;
+
+   /**
+    * HTTP server options including the port and host where to listen.
+    */
+   private final HttpServerOptions options;
+
+   /**
+    * Creates a new server instance.
+    *
+    * @param routerFactory
+    *       Creates the router handling the requests of this instance.
+    * @param options
+    *       HTTP server options including the port and host where to listen.
+    */
+   WeaverVerticle(final Function<Vertx, Router> routerFactory, final HttpServerOptions options) {
+      this.routerFactory = routerFactory;
+      this.options = options;
+   }
+
+   @Override
+   public void start(final Future<Void> startFuture) {
+      final Router router = routerFactory.apply(vertx);
+
+      vertx.createHttpServer(options).requestHandler(router::accept).listen(result -> {
+         if (result.succeeded()) {
+            startFuture.complete();
+         } else {
+            startFuture.fail(result.cause());
+         }
+      });
+   }
+}
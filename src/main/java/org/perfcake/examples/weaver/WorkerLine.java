@@ -0,0 +1,281 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.MapConfigurable;
+import org.perfcake.examples.weaver.worker.Worker;
+import org.perfcake.examples.weaver.worker.WorkerTemplate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A line of the configuration file with the worker definition and the instances created according to it.
+ * The definition is compiled into a {@link WorkerTemplate} once, so that the instances are created without parsing
+ * and looking up the properties again.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class WorkerLine {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(WorkerLine.class);
+
+   /**
+    * The worker definition, i.e. the line without the multiplicity.
+    */
+   private final String definition;
+
+   /**
+    * Fully qualified worker class name.
+    */
+   private final String clazz;
+
+   /**
+    * Worker properties.
+    */
+   private final Properties properties = new Properties();
+
+   /**
+    * Properties passed to {@link MapConfigurable} workers.
+    */
+   private final Properties mapProperties = new Properties();
+
+   /**
+    * The configured number of workers.
+    */
+   private final int count;
+
+   /**
+    * The compiled worker definition, null when it could not be compiled.
+    */
+   private WorkerTemplate template;
+
+   /**
+    * The worker instances.
+    */
+   private final List<Worker> workers = new ArrayList<>();
+
+   private WorkerLine(final String definition, final String clazz, final int count) {
+      this.definition = definition;
+      this.clazz = clazz;
+      this.count = count;
+   }
+
+   /**
+    * Parses worker configuration line of the default route and compiles the worker definition. The workers are not created yet.
+    *
+    * @param configLine
+    *       The configuration line.
+    * @return The parsed line, or null when the line does not define any workers.
+    */
+   static WorkerLine parse(final String configLine) {
+      return parse(Route.DEFAULT_PATH, configLine);
+   }
+
+   /**
+    * Parses worker configuration line and compiles the worker definition. The workers are not created yet.
+    * The {@link MapConfigurable} workers get the identity of the line made of the route path prefix and the worker definition.
+    *
+    * @param section
+    *       The path prefix of the route of the line.
+    * @param configLine
+    *       The configuration line.
+    * @return The parsed line, or null when the line does not define any workers.
+    */
+   static WorkerLine parse(final String section, final String configLine) {
+      if (configLine != null && !configLine.isEmpty() && !configLine.startsWith("#")) {
+         final String[] spaceSplit = configLine.split(" ", 2);
+         final String[] equalsSplit = spaceSplit[1].split("=", 2);
+         final int count = Integer.parseInt(StringUtils.strip(spaceSplit[0], " x"));
+         String clazz = StringUtils.strip(equalsSplit[0]);
+         clazz = clazz.contains(".") ? clazz : "org.perfcake.examples.weaver.worker." + clazz;
+
+         final WorkerLine line = new WorkerLine(StringUtils.strip(spaceSplit[1]), clazz, count);
+         if (equalsSplit.length > 1) {
+            final String[] propertiesConfig = StringUtils.stripAll(StringUtils.strip(equalsSplit[1]).split(","));
+            for (final String property : propertiesConfig) {
+               final String[] keyValue = StringUtils.stripAll(property.split(":", 2));
+               if (WorkerTemplate.isWorkerProperty(keyValue[0])) {
+                  line.mapProperties.setProperty(keyValue[0], keyValue[1]);
+               } else {
+                  line.properties.setProperty(keyValue[0], keyValue[1]);
+               }
+            }
+         }
+         line.mapProperties.setProperty(MapConfigurable.LINE, "[" + section + "] " + line.definition);
+
+         try {
+            line.template = WorkerTemplate.compile(clazz, line.properties);
+         } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            log.error("Unable to parse line '" + configLine + "': ", e);
+         }
+
+         return line;
+      }
+
+      return null;
+   }
+
+   /**
+    * Creates the configured number of workers in parallel while keeping their order. The workers that refused their configuration are skipped.
+    */
+   void create() {
+      if (template == null) {
+         return;
+      }
+
+      log.info("Summoning " + count + " instances of " + clazz + " with properties " + properties + " and map properties " + mapProperties);
+      final List<Worker> created = IntStream.range(0, count).parallel().mapToObj(i -> {
+         try {
+            return newWorker();
+         } catch (ReflectiveOperationException e) {
+            log.error("Unable to create workers of line '" + definition + "': ", e);
+            return null;
+         }
+      }).collect(Collectors.toList());
+
+      final long failed = created.stream().filter(Objects::isNull).count();
+      if (failed > 0) {
+         log.warn("Bad configuration. Skipping " + failed + " instances of worker " + clazz);
+      }
+      created.stream().filter(Objects::nonNull).forEach(workers::add);
+   }
+
+   /**
+    * Creates a new worker according to the template.
+    *
+    * @return The new worker, or null when it refused its configuration.
+    * @throws ReflectiveOperationException
+    *       When it was not possible to create the worker.
+    */
+   private Worker newWorker() throws ReflectiveOperationException {
+      final Worker worker = template.newInstance();
+
+      if (worker instanceof MapConfigurable && !((MapConfigurable) worker).configure(mapProperties)) {
+         worker.close();
+         return null;
+      }
+
+      return worker;
+   }
+
+   /**
+    * Creates or removes workers so that there is the given number of them. The workers that refused their configuration are skipped,
+    * so there can be less of them. The removed workers are not closed,
+    * because they can still be in use. The route closes them once they are no longer used, see {@link Route#publish(List, boolean)}.
+    *
+    * @param multiplicity
+    *       The requested number of workers.
+    * @throws ReflectiveOperationException
+    *       When it was not possible to create the workers.
+    */
+   void setMultiplicity(final int multiplicity) throws ReflectiveOperationException {
+      if (multiplicity < 0) {
+         throw new IllegalArgumentException("Multiplicity cannot be negative.");
+      }
+
+      while (workers.size() > multiplicity) {
+         workers.remove(workers.size() - 1);
+      }
+
+      if (template == null && multiplicity > workers.size()) {
+         throw new IllegalStateException("Unable to create workers of line '" + definition + "', see the log for details.");
+      }
+
+      for (int i = workers.size(); i < multiplicity; i++) {
+         final Worker worker = newWorker();
+
+         if (worker != null) {
+            workers.add(worker);
+         } else {
+            log.warn("Bad configuration. Skipping worker " + clazz);
+         }
+      }
+   }
+
+   /**
+    * Checks whether the line creates workers of the given type, including the underlying workers of a {@link org.perfcake.examples.weaver.worker.CompositeWorker}.
+    *
+    * @param type
+    *       The worker type.
+    * @return True iff the line creates workers of the type.
+    */
+   boolean uses(final Class<?> type) {
+      if (isA(clazz, type)) {
+         return true;
+      }
+
+      for (final String key : mapProperties.stringPropertyNames()) {
+         if (key.endsWith("_class") && isA(mapProperties.getProperty(key), type)) {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Checks whether a class is of the given type.
+    *
+    * @param className
+    *       The class name, the package defaults to org.perfcake.examples.weaver.worker.
+    * @param type
+    *       The type.
+    * @return True iff the class exists and it is of the type.
+    */
+   private static boolean isA(final String className, final Class<?> type) {
+      try {
+         return type.isAssignableFrom(Class.forName(className.contains(".") ? className : "org.perfcake.examples.weaver.worker." + className));
+      } catch (ClassNotFoundException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Closes all the workers.
+    */
+   void close() {
+      workers.forEach(Worker::close);
+   }
+
+   String getDefinition() {
+      return definition;
+   }
+
+   int getMultiplicity() {
+      return workers.size();
+   }
+
+   List<Worker> getWorkers() {
+      return Collections.unmodifiableList(workers);
+   }
+}
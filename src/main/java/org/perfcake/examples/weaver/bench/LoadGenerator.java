@@ -0,0 +1,450 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.bench;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpVersion;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives load against a running Weaver server using a non-blocking HTTP client and reports the throughput and latency.
+ *
+ * In the closed-loop model, a fixed number of requests is kept in flight and a new request is sent as soon as a response arrives.
+ * In the open-loop model, requests are sent at a fixed rate regardless of the responses. The latency is then measured from the time
+ * a request was supposed to be sent, so that it is not hidden by a stalled server (coordinated omission). The requests are spread
+ * among several event loops, each with its own connection pool. The requests can be sent one at a time per connection,
+ * pipelined, or multiplexed over HTTP/2 over cleartext.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class LoadGenerator {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(LoadGenerator.class);
+
+   /**
+    * Reported latency percentiles.
+    */
+   private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+
+   /**
+    * Period of sending requests in the open-loop model in milliseconds.
+    */
+   private static final long TICK = 1;
+
+   /**
+    * Request timeout in milliseconds.
+    */
+   private static final long REQUEST_TIMEOUT = 30_000;
+
+   /**
+    * Maximum number of requests in flight per connection with pipelining or HTTP/2.
+    */
+   private static final int REQUESTS_PER_CONNECTION = 16;
+
+   /**
+    * How the requests are sent over the connections.
+    */
+   public enum Protocol {
+
+      /**
+       * HTTP/1.1 with one request at a time per connection.
+       */
+      HTTP1,
+
+      /**
+       * HTTP/1.1 with pipelined requests.
+       */
+      PIPELINED,
+
+      /**
+       * HTTP/2 over cleartext with prior knowledge.
+       */
+      H2C
+   }
+
+   /**
+    * Target host.
+    */
+   private final String host;
+
+   /**
+    * Target port.
+    */
+   private final int port;
+
+   /**
+    * Requested path.
+    */
+   private final String path;
+
+   /**
+    * Number of requests in flight in the closed-loop model, or the maximum number of connections in the open-loop model.
+    */
+   private final int concurrency;
+
+   /**
+    * Requests per second in the open-loop model, 0 for the closed-loop model.
+    */
+   private final int rate;
+
+   /**
+    * How the requests are sent over the connections.
+    */
+   private final Protocol protocol;
+
+   /**
+    * Latencies of the completed requests in microseconds.
+    */
+   private final Recorder latency = new Recorder(3);
+
+   /**
+    * Number of responses with a status code other than 2xx.
+    */
+   private final LongAdder unsuccessful = new LongAdder();
+
+   /**
+    * Number of requests that failed without a response.
+    */
+   private final LongAdder errors = new LongAdder();
+
+   /**
+    * Whether new requests should be sent.
+    */
+   private volatile boolean running = false;
+
+   /**
+    * Creates a new load generator.
+    *
+    * @param host
+    *       Target host.
+    * @param port
+    *       Target port.
+    * @param path
+    *       Requested path.
+    * @param concurrency
+    *       Number of requests in flight in the closed-loop model, or the maximum number of connections in the open-loop model.
+    * @param rate
+    *       Requests per second in the open-loop model, 0 for the closed-loop model.
+    * @param protocol
+    *       How the requests are sent over the connections.
+    */
+   public LoadGenerator(final String host, final int port, final String path, final int concurrency, final int rate, final Protocol protocol) {
+      if (concurrency <= 0) {
+         throw new IllegalArgumentException("Concurrency must be positive.");
+      }
+
+      this.host = host;
+      this.port = port;
+      this.path = path;
+      this.concurrency = concurrency;
+      this.rate = Math.max(0, rate);
+      this.protocol = protocol;
+   }
+
+   /**
+    * Generates the load and prints out the results.
+    *
+    * @param warmup
+    *       Warm-up time in seconds, the requests completed during the warm-up are not reported.
+    * @param duration
+    *       Measurement time in seconds.
+    * @param out
+    *       Where to print the results.
+    * @throws InterruptedException
+    *       When interrupted while generating the load.
+    */
+   public void run(final int warmup, final int duration, final PrintStream out) throws InterruptedException {
+      final int loops = Math.max(1, Math.min(concurrency, Runtime.getRuntime().availableProcessors()));
+      final Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(loops));
+
+      try {
+         log.info("Generating load for " + warmup + " s warm-up and " + duration + " s measurement using " + describe() + ".");
+         running = true;
+         final long start = System.nanoTime();
+         for (int i = 0; i < loops; i++) {
+            final int connections = concurrency / loops + (i < concurrency % loops ? 1 : 0);
+            final double loopRate = (double) rate * connections / concurrency;
+            // a context created outside of Vert.x gets the next event loop
+            vertx.getOrCreateContext().runOnContext(v -> new Loop(vertx, connections, loopRate).start(start));
+         }
+
+         TimeUnit.SECONDS.sleep(warmup);
+         latency.reset();
+         unsuccessful.reset();
+         errors.reset();
+         final long measurementStart = System.nanoTime();
+
+         TimeUnit.SECONDS.sleep(duration);
+         final Histogram histogram = latency.getIntervalHistogram();
+         final long measured = System.nanoTime() - measurementStart;
+         running = false;
+
+         report(histogram, measured, out);
+      } finally {
+         running = false;
+         vertx.close();
+      }
+   }
+
+   /**
+    * Describes the load model.
+    *
+    * @return The load model description.
+    */
+   private String describe() {
+      return (rate > 0 ? "open loop at " + rate + " requests/s with at most " + concurrency + " requests in flight" : "closed loop with " + concurrency + " requests in flight") + " over " + protocol;
+   }
+
+   /**
+    * Prints out the measured results.
+    *
+    * @param histogram
+    *       Latencies of the requests completed during the measurement.
+    * @param measured
+    *       The measurement time in nanoseconds.
+    * @param out
+    *       Where to print the results.
+    */
+   private void report(final Histogram histogram, final long measured, final PrintStream out) {
+      final double seconds = measured / 1_000_000_000.0;
+      final double throughput = histogram.getTotalCount() / seconds;
+
+      out.println("Load model:  " + describe());
+      out.println(String.format(Locale.ROOT, "Duration:    %.3f s", seconds));
+      out.println("Requests:    " + histogram.getTotalCount() + " completed, " + unsuccessful.sum() + " non-2xx, " + errors.sum() + " errors");
+      out.println(String.format(Locale.ROOT, "Throughput:  %.1f requests/s", throughput));
+      if (rate > 0 && throughput < rate * 0.99) {
+         out.println("             the target rate was NOT sustained");
+      }
+
+      final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "Latency:     mean %.3f ms", histogram.getMean() / 1000.0));
+      for (final double percentile : PERCENTILES) {
+         sb.append(String.format(Locale.ROOT, ", p%s %.3f ms", BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(), histogram.getValueAtPercentile(percentile) / 1000.0));
+      }
+      sb.append(String.format(Locale.ROOT, ", max %.3f ms", histogram.getMaxValue() / 1000.0));
+      out.println(sb);
+   }
+
+   /**
+    * Requests sent from a single event loop over its own connection pool. Confined to the event loop thread.
+    */
+   private final class Loop {
+
+      /**
+       * Vert.x instance.
+       */
+      private final Vertx vertx;
+
+      /**
+       * HTTP client of this event loop.
+       */
+      private final HttpClient client;
+
+      /**
+       * Number of requests in flight in the closed-loop model, or the maximum number of requests in flight in the open-loop model.
+       */
+      private final int connections;
+
+      /**
+       * Nanoseconds between requests in the open-loop model, 0 for the closed-loop model.
+       */
+      private final double interval;
+
+      /**
+       * Number of requests sent so far in the open-loop model.
+       */
+      private long sent = 0;
+
+      private Loop(final Vertx vertx, final int connections, final double rate) {
+         this.vertx = vertx;
+         this.connections = connections;
+         this.interval = rate > 0 ? 1_000_000_000.0 / rate : 0;
+         this.client = vertx.createHttpClient(createClientOptions(connections));
+      }
+
+      /**
+       * Creates the client options for the given number of requests in flight.
+       *
+       * @param requests
+       *       Maximum number of requests in flight.
+       * @return The client options.
+       */
+      private HttpClientOptions createClientOptions(final int requests) {
+         final HttpClientOptions options = new HttpClientOptions().setDefaultHost(host).setDefaultPort(port).setKeepAlive(true);
+         final int multiplexed = Math.max(1, (requests + REQUESTS_PER_CONNECTION - 1) / REQUESTS_PER_CONNECTION);
+
+         switch (protocol) {
+            case PIPELINED:
+               return options.setPipelining(true).setPipeliningLimit(REQUESTS_PER_CONNECTION).setMaxPoolSize(multiplexed);
+            case H2C:
+               return options.setProtocolVersion(HttpVersion.HTTP_2).setHttp2ClearTextUpgrade(false)
+                             .setHttp2MaxPoolSize(multiplexed).setHttp2MultiplexingLimit(REQUESTS_PER_CONNECTION);
+            default:
+               return options.setMaxPoolSize(Math.max(1, requests));
+         }
+      }
+
+      /**
+       * Starts sending requests.
+       *
+       * @param start
+       *       Time when the load generation started in nanoseconds.
+       */
+      private void start(final long start) {
+         if (interval > 0) {
+            vertx.setPeriodic(TICK, timerId -> {
+               if (!running) {
+                  vertx.cancelTimer(timerId);
+                  return;
+               }
+
+               // send all the requests that should have been sent by now, each with its intended start time
+               final long now = System.nanoTime();
+               long intended;
+               while ((intended = start + (long) (sent * interval)) <= now) {
+                  sent++;
+                  send(intended, null);
+               }
+            });
+         } else {
+            for (int i = 0; i < connections; i++) {
+               next();
+            }
+         }
+      }
+
+      /**
+       * Sends the next request in the closed-loop model.
+       */
+      private void next() {
+         if (running) {
+            send(System.nanoTime(), this::next);
+         }
+      }
+
+      /**
+       * Sends a request.
+       *
+       * @param intended
+       *       Time when the request was supposed to be sent in nanoseconds.
+       * @param then
+       *       What to do when the request is completed, can be null.
+       */
+      private void send(final long intended, final Runnable then) {
+         final Exchange exchange = new Exchange(intended, then);
+         client.get(path, exchange).setTimeout(REQUEST_TIMEOUT).exceptionHandler(exchange::fail).end();
+      }
+   }
+
+   /**
+    * A single request and its response.
+    */
+   private final class Exchange implements Handler<HttpClientResponse> {
+
+      /**
+       * Time when the request was supposed to be sent in nanoseconds.
+       */
+      private final long intended;
+
+      /**
+       * What to do when the request is completed, can be null.
+       */
+      private final Runnable then;
+
+      /**
+       * Whether the request has already been completed.
+       */
+      private boolean completed = false;
+
+      private Exchange(final long intended, final Runnable then) {
+         this.intended = intended;
+         this.then = then;
+      }
+
+      @Override
+      public void handle(final HttpClientResponse response) {
+         response.exceptionHandler(this::fail);
+         response.endHandler(v -> {
+            if (complete()) {
+               latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended)));
+               if (response.statusCode() / 100 != 2) {
+                  unsuccessful.increment();
+               }
+               proceed();
+            }
+         });
+      }
+
+      /**
+       * Completes the request without a response.
+       *
+       * @param cause
+       *       The failure cause.
+       */
+      private void fail(final Throwable cause) {
+         if (complete()) {
+            errors.increment();
+            log.debug("Request failed: ", cause);
+            proceed();
+         }
+      }
+
+      /**
+       * Marks the request completed.
+       *
+       * @return True iff the request was not completed before.
+       */
+      private boolean complete() {
+         if (completed) {
+            return false;
+         }
+
+         completed = true;
+
+         return true;
+      }
+
+      /**
+       * Continues with the next action.
+       */
+      private void proceed() {
+         if (then != null) {
+            then.run();
+         }
+      }
+   }
+}
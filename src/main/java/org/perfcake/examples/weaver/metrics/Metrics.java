@@ -0,0 +1,247 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.metrics;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collects Weaver runtime metrics and exposes them in the Prometheus text format.
+ *
+ * All the recording is lock-free (counters are {@link LongAdder LongAdders}, latencies go to HDR histogram {@link Recorder Recorders}).
+ * The latency percentiles are computed over the interval since the previous scrape, the counts and sums are cumulative.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class Metrics {
+
+   /**
+    * The reserved path where the metrics are published.
+    */
+   public static final String PATH = "/_weaver/metrics";
+
+   /**
+    * Reported latency quantiles.
+    */
+   private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1.0 };
+
+   /**
+    * Number of significant value digits in the histograms.
+    */
+   private static final int PRECISION = 3;
+
+   /**
+    * Number of requests received.
+    */
+   private final LongAdder requests = new LongAdder();
+
+   /**
+    * Number of requests being processed.
+    */
+   private final LongAdder inFlight = new LongAdder();
+
+   /**
+    * Number of requests rejected because the queue was full.
+    */
+   private final LongAdder rejected = new LongAdder();
+
+   /**
+    * Number of requests dropped because they waited in the queue for too long.
+    */
+   private final LongAdder expired = new LongAdder();
+
+   /**
+    * Time the requests spent in the executor queue.
+    */
+   private final Latency queueWait = new Latency();
+
+   /**
+    * Service time of the requests per worker class.
+    */
+   private final ConcurrentMap<String, Latency> serviceTimes = new ConcurrentHashMap<>();
+
+   /**
+    * Provides the current executors to report the state of by their route path prefixes.
+    */
+   private final Supplier<Map<String, ThreadPoolExecutor>> executors;
+
+   /**
+    * Creates a new metrics registry.
+    *
+    * @param executors
+    *       Provides the current executors to report the state of by their route path prefixes.
+    */
+   public Metrics(final Supplier<Map<String, ThreadPoolExecutor>> executors) {
+      this.executors = executors;
+   }
+
+   /**
+    * Creates a routing handler that starts measuring each incoming request.
+    *
+    * @return The routing handler.
+    */
+   public Handler<RoutingContext> handler() {
+      return context -> {
+         RequestMetrics.start(this, context);
+         context.next();
+      };
+   }
+
+   /**
+    * Creates a routing handler that publishes the metrics.
+    *
+    * @return The routing handler.
+    */
+   public Handler<RoutingContext> scrapeHandler() {
+      return context -> context.response().putHeader("Content-Type", "text/plain; version=0.0.4").end(scrape());
+   }
+
+   void requestStarted() {
+      requests.increment();
+      inFlight.increment();
+   }
+
+   void requestFinished() {
+      inFlight.decrement();
+   }
+
+   void requestRejected() {
+      rejected.increment();
+   }
+
+   void requestExpired() {
+      expired.increment();
+   }
+
+   void queueWait(final long nanos) {
+      queueWait.record(nanos);
+   }
+
+   void serviceTime(final Class<?> worker, final long nanos) {
+      final String name = worker.getSimpleName();
+      Latency latency = serviceTimes.get(name);
+      if (latency == null) {
+         latency = serviceTimes.computeIfAbsent(name, n -> new Latency());
+      }
+      latency.record(nanos);
+   }
+
+   /**
+    * Renders the current metrics in the Prometheus text format.
+    *
+    * @return The metrics.
+    */
+   public synchronized String scrape() {
+      final StringBuilder sb = new StringBuilder();
+
+      counter(sb, "weaver_requests_total", "Number of requests received.", requests.sum());
+      gauge(sb, "weaver_requests_in_flight", "Number of requests being processed.", inFlight.sum());
+      counter(sb, "weaver_requests_rejected_total", "Number of requests rejected because the queue was full.", rejected.sum());
+      counter(sb, "weaver_requests_expired_total", "Number of requests dropped after waiting in the queue for too long.", expired.sum());
+
+      final Map<String, ThreadPoolExecutor> routes = executors.get();
+      routeGauge(sb, "weaver_executor_queue_size", "Number of requests waiting for a thread.", routes, executor -> executor.getQueue().size());
+      routeGauge(sb, "weaver_executor_active_threads", "Number of threads processing requests.", routes, ThreadPoolExecutor::getActiveCount);
+      routeGauge(sb, "weaver_executor_pool_size", "Number of threads in the pool.", routes, ThreadPoolExecutor::getPoolSize);
+
+      sb.append("# HELP weaver_queue_wait_seconds Time the requests spent waiting for a thread.\n");
+      sb.append("# TYPE weaver_queue_wait_seconds summary\n");
+      queueWait.write(sb, "weaver_queue_wait_seconds", "");
+
+      sb.append("# HELP weaver_worker_service_time_seconds Time from starting a worker until the response was ended.\n");
+      sb.append("# TYPE weaver_worker_service_time_seconds summary\n");
+      new TreeMap<>(serviceTimes).forEach((worker, latency) -> latency.write(sb, "weaver_worker_service_time_seconds", "worker=\"" + worker + "\""));
+
+      return sb.toString();
+   }
+
+   private static void counter(final StringBuilder sb, final String name, final String help, final long value) {
+      metric(sb, name, help, "counter", value);
+   }
+
+   private static void gauge(final StringBuilder sb, final String name, final String help, final long value) {
+      metric(sb, name, help, "gauge", value);
+   }
+
+   private static void routeGauge(final StringBuilder sb, final String name, final String help, final Map<String, ThreadPoolExecutor> routes,
+         final ToLongFunction<ThreadPoolExecutor> value) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(" gauge\n");
+      routes.forEach((route, executor) -> sb.append(name).append("{route=\"").append(route).append("\"} ").append(value.applyAsLong(executor)).append('\n'));
+   }
+
+   private static void metric(final StringBuilder sb, final String name, final String help, final String type, final long value) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      sb.append(name).append(' ').append(value).append('\n');
+   }
+
+   /**
+    * Latency histogram in microseconds with a cumulative count and sum.
+    */
+   private static final class Latency {
+
+      private final Recorder recorder = new Recorder(PRECISION);
+
+      private final LongAdder count = new LongAdder();
+
+      private final LongAdder sumNanos = new LongAdder();
+
+      private Histogram interval = null;
+
+      private void record(final long nanos) {
+         recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+         count.increment();
+         sumNanos.add(nanos);
+      }
+
+      private void write(final StringBuilder sb, final String name, final String labels) {
+         interval = recorder.getIntervalHistogram(interval);
+         final String separator = labels.isEmpty() ? "" : ",";
+
+         for (final double quantile : QUANTILES) {
+            final double value = interval.getTotalCount() == 0 ? Double.NaN : interval.getValueAtPercentile(quantile * 100) / 1_000_000d;
+            sb.append(name).append("{").append(labels).append(separator).append("quantile=\"").append(quantile).append("\"} ")
+              .append(format(value)).append('\n');
+         }
+
+         final String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+         sb.append(name).append("_sum").append(braces).append(' ').append(format(sumNanos.sum() / 1_000_000_000d)).append('\n');
+         sb.append(name).append("_count").append(braces).append(' ').append(count.sum()).append('\n');
+      }
+
+      private static String format(final double value) {
+         return Double.isNaN(value) ? "NaN" : String.format(Locale.ROOT, "%.6f", value);
+      }
+   }
+}
@@ -0,0 +1,150 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.metrics;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures a single request. It is stored in the routing context and finishes the measurement once the response has been
+ * ended, or once the worker has completed when the connection has been closed meanwhile. The response end is observed by a body end
+ * handler chained with the others, so the close, end and body end handlers of the response are left to the workers.
+ * The worker is started on an executor thread while the measurement can be finished on the event loop.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class RequestMetrics implements Handler<Void> {
+
+   /**
+    * The key of the request metrics in the routing context.
+    */
+   private static final String CONTEXT_KEY = RequestMetrics.class.getName();
+
+   /**
+    * The metrics registry to record to.
+    */
+   private final Metrics metrics;
+
+   /**
+    * The worker processing the request, null when no worker was started.
+    */
+   private volatile Class<?> worker = null;
+
+   /**
+    * When the worker was started.
+    */
+   private volatile long workerStarted;
+
+   /**
+    * True when the measurement is over.
+    */
+   private final AtomicBoolean finished = new AtomicBoolean(false);
+
+   private RequestMetrics(final Metrics metrics) {
+      this.metrics = metrics;
+   }
+
+   /**
+    * Starts measuring a new request.
+    *
+    * @param metrics
+    *       The metrics registry to record to.
+    * @param context
+    *       Incoming HTTP routing context.
+    */
+   static void start(final Metrics metrics, final RoutingContext context) {
+      final RequestMetrics requestMetrics = new RequestMetrics(metrics);
+      context.put(CONTEXT_KEY, requestMetrics);
+      context.addBodyEndHandler(requestMetrics);
+      metrics.requestStarted();
+   }
+
+   /**
+    * Gets the metrics of the request.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    * @return The request metrics, or null when the metrics are disabled.
+    */
+   public static RequestMetrics of(final RoutingContext context) {
+      return context.get(CONTEXT_KEY);
+   }
+
+   /**
+    * Records the time the request spent in the executor queue.
+    *
+    * @param nanos
+    *       The waiting time in nanoseconds.
+    */
+   public void queued(final long nanos) {
+      metrics.queueWait(nanos);
+   }
+
+   /**
+    * Records that the request was rejected because the queue was full.
+    */
+   public void rejected() {
+      metrics.requestRejected();
+   }
+
+   /**
+    * Records that the request was dropped because it waited in the queue for too long.
+    */
+   public void expired() {
+      metrics.requestExpired();
+   }
+
+   /**
+    * Marks the start of the worker processing the request.
+    *
+    * @param worker
+    *       The worker class.
+    */
+   public void workerStarted(final Class<?> worker) {
+      this.worker = worker;
+      this.workerStarted = System.nanoTime();
+   }
+
+   /**
+    * Finishes the measurement once the request has been processed when the response can never be ended because the connection was closed.
+    * An ended response has already been measured by the body end handler.
+    *
+    * @param response
+    *       The response to the request.
+    */
+   public void completed(final HttpServerResponse response) {
+      if (response.closed() && !response.ended()) {
+         handle(null);
+      }
+   }
+
+   @Override
+   public void handle(final Void event) {
+      if (finished.compareAndSet(false, true)) {
+         if (worker != null) {
+            metrics.serviceTime(worker, System.nanoTime() - workerStarted);
+         }
+         metrics.requestFinished();
+      }
+   }
+}
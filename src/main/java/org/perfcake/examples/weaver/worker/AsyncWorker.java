@@ -0,0 +1,45 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.core.Future;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Worker that is able to process a request without holding the calling thread for the whole time.
+ * The worker only starts the processing (e.g. schedules a Vert.x timer) and completes the returned future
+ * once the response has been ended. The calling thread is released as soon as this method returns, and so is the worker,
+ * which can then start processing other requests while this one is still pending.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public interface AsyncWorker extends Worker {
+
+   /**
+    * Starts processing of an incoming HTTP request.
+    *
+    * @param context
+    *       Incoming HTTP router context to process.
+    * @return Future completed when the response was ended, or failed when there was any error processing the request.
+    * @throws Exception
+    *       When there was any error starting the request processing.
+    */
+   Future<Void> workAsync(final RoutingContext context) throws Exception;
+}
@@ -0,0 +1,193 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Request body that is streamed instead of being buffered in memory.
+ *
+ * In the streaming mode, the request is paused before it is handed over to a worker. The worker can claim the body
+ * and pipe it to the response by {@link #pipeTo(HttpServerResponse)}. Otherwise, the body is drained and thrown away
+ * once the worker has finished, an asynchronous worker once it has completed. The body size can be limited, the connection
+ * is closed when the limit is exceeded.
+ * With HTTP/2, only the stream is answered and the rest of its body is thrown away.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class BodyStream {
+
+   /**
+    * The key of the body stream in the routing context.
+    */
+   private static final String CONTEXT_KEY = BodyStream.class.getName();
+
+   /**
+    * The status code returned when the body is too large.
+    */
+   private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+   /**
+    * The request with the body.
+    */
+   private final HttpServerRequest request;
+
+   /**
+    * The response to the request.
+    */
+   private final HttpServerResponse response;
+
+   /**
+    * Maximum body size in bytes, negative value means no limit.
+    */
+   private final long maxBodySize;
+
+   /**
+    * Number of bytes received so far.
+    */
+   private long received = 0;
+
+   /**
+    * True when a worker has claimed the body.
+    */
+   private boolean claimed = false;
+
+   private BodyStream(final RoutingContext context, final long maxBodySize) {
+      this.request = context.request();
+      this.response = context.response();
+      this.maxBodySize = maxBodySize;
+   }
+
+   /**
+    * Creates a routing handler that pauses the request and prepares its body for streaming.
+    *
+    * @param maxBodySize
+    *       Maximum body size in bytes, negative value means no limit.
+    * @return The routing handler.
+    */
+   public static Handler<RoutingContext> handler(final long maxBodySize) {
+      return context -> {
+         final BodyStream stream = new BodyStream(context, maxBodySize);
+         context.put(CONTEXT_KEY, stream);
+         context.request().pause();
+         context.request().handler(stream::discard);
+         context.next();
+      };
+   }
+
+   /**
+    * Gets the body stream of the request.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    * @return The body stream, or null when the body was buffered.
+    */
+   public static BodyStream get(final RoutingContext context) {
+      return context.get(CONTEXT_KEY);
+   }
+
+   /**
+    * Drains the body unless a worker has claimed it. Called once the worker has finished.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    */
+   public static void release(final RoutingContext context) {
+      final BodyStream stream = get(context);
+
+      if (stream != null && !stream.claimed) {
+         stream.request.resume();
+      }
+   }
+
+   /**
+    * Claims the body and writes it to the response as it arrives. The request is paused while the response write queue is full.
+    * The response is ended together with the request.
+    *
+    * @param target
+    *       The response to write the body to.
+    */
+   public void pipeTo(final HttpServerResponse target) {
+      claimed = true;
+      request.handler(data -> {
+         if (count(data)) {
+            target.write(data);
+            if (target.writeQueueFull()) {
+               request.pause();
+               target.drainHandler(v -> request.resume());
+            }
+         }
+      });
+      request.endHandler(v -> target.end());
+      request.resume();
+   }
+
+   /**
+    * Throws the received data away.
+    *
+    * @param data
+    *       The received data.
+    */
+   private void discard(final Buffer data) {
+      count(data);
+   }
+
+   /**
+    * Counts the received data and checks the body size limit.
+    *
+    * @param data
+    *       The received data.
+    * @return True iff the body size is still within the limit.
+    */
+   private boolean count(final Buffer data) {
+      received += data.length();
+
+      if (maxBodySize >= 0 && received > maxBodySize) {
+         request.endHandler(null);
+
+         if (request.version() == HttpVersion.HTTP_2) {
+            // other streams on the same connection are not affected, the rest of the body is thrown away
+            request.handler(ignored -> {
+            });
+            if (!response.ended() && !response.headWritten()) {
+               response.setStatusCode(REQUEST_ENTITY_TOO_LARGE).end();
+            } else if (!response.ended()) {
+               response.reset();
+            }
+            request.resume();
+         } else {
+            request.handler(null);
+            if (!response.ended() && !response.headWritten()) {
+               response.setStatusCode(REQUEST_ENTITY_TOO_LARGE).end();
+            }
+            request.connection().close();
+         }
+
+         return false;
+      }
+
+      return true;
+   }
+}
@@ -0,0 +1,188 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.core.Future;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A worker that passes each request to one of its underlying workers.
+ * The underlying workers are configured by parameters in the form of workerXX_&lt;worker property&gt;.
+ * For each of the underlying workers, there must be one mandatory property configured - workerXX_class - that specifies
+ * the worker class name. By default the package org.perfcake.examples.weaver.worker is assumed.
+ * The underlying workers are ordered by their numbers.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public abstract class CompositeWorker implements AsyncWorker, MapConfigurable {
+
+   /**
+    * Logger.
+    */
+   private static Logger log = LogManager.getLogger(CompositeWorker.class);
+
+   /**
+    * List of the underlying workers.
+    */
+   private final List<Worker> workers = new ArrayList<>();
+
+   /**
+    * Selects the underlying worker to process the next request.
+    *
+    * @return The selected worker, or null when there is none.
+    */
+   protected abstract Worker select();
+
+   /**
+    * Takes the properties of an underlying worker that are meant for this worker out of its configuration.
+    * Called for each of the underlying workers in their order before it is created.
+    *
+    * @param properties
+    *       Properties of the underlying worker, the consumed ones should be removed.
+    * @return True iff the properties were correct.
+    */
+   protected boolean configureWorker(final Properties properties) {
+      return true;
+   }
+
+   /**
+    * Finishes the configuration once all the underlying workers have been created.
+    *
+    * @return True iff the configuration was correct.
+    */
+   protected boolean configured() {
+      return true;
+   }
+
+   @Override
+   public void work(final RoutingContext context) throws Exception {
+      final Worker w = select();
+      if (w != null) {
+         w.work(context);
+      }
+   }
+
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      final Worker w = select();
+      if (w != null) {
+         if (w instanceof AsyncWorker) {
+            return ((AsyncWorker) w).workAsync(context);
+         }
+
+         w.work(context);
+      }
+
+      return Future.succeededFuture();
+   }
+
+   @Override
+   public boolean isNonBlocking() {
+      return workers.stream().allMatch(Worker::isNonBlocking);
+   }
+
+   @Override
+   public void close() {
+      workers.forEach(Worker::close);
+   }
+
+   @Override
+   public boolean configure(final Properties configuration) {
+      final Map<Integer, Properties> configurations = new TreeMap<>();
+
+      // parse configurations
+      configuration.forEach((k, v) -> {
+         final String key = k.toString();
+         final String val = v.toString();
+
+         if (key.startsWith("worker")) {
+            int workerNumber = Integer.parseInt(key.substring(6, key.indexOf("_")));
+            configurations.computeIfAbsent(workerNumber, n -> new Properties());
+
+            configurations.get(workerNumber).put(key.substring(key.indexOf("_") + 1), val);
+         }
+      });
+
+      // create workers
+      int errorCount = 0;
+      for (final Map.Entry<Integer, Properties> entry : configurations.entrySet()) {
+         final Integer n = entry.getKey();
+         final Properties props = entry.getValue();
+         String clazz = (String) props.remove("class");
+         clazz = clazz.contains(".") ? clazz : "org.perfcake.examples.weaver.worker." + clazz;
+
+         try {
+            final Properties mapProperties = new Properties();
+            props.forEach((k, v) -> {
+               if (WorkerTemplate.isWorkerProperty((String) k)) {
+                  mapProperties.setProperty((String) k, (String) v);
+               }
+            });
+            mapProperties.forEach((k, v) -> props.remove(k));
+            if (configuration.getProperty(LINE) != null) {
+               mapProperties.setProperty(LINE, configuration.getProperty(LINE) + " worker" + n);
+            }
+
+            if (!configureWorker(props)) {
+               log.error("Wrong configuration of underlying worker no. " + n);
+               errorCount++;
+               continue;
+            }
+
+            final Worker worker = WorkerTemplate.of(clazz, props).newInstance();
+
+            boolean add = true;
+            if (worker instanceof MapConfigurable) {
+               add = ((MapConfigurable) worker).configure(mapProperties);
+            }
+
+            if (add) {
+               workers.add(worker);
+            } else {
+               log.error("Unable to configure underlying worker no. " + n);
+               errorCount++;
+            }
+         } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            log.error("Unable to configure underlying worker no. " + n + ": ", e);
+            errorCount++;
+         }
+      }
+
+      return errorCount == 0 && workers.size() > 0 && configured();
+   }
+
+   /**
+    * Gets the underlying workers.
+    *
+    * @return Unmodifiable list of the underlying workers in their order.
+    */
+   protected List<Worker> getWorkers() {
+      return Collections.unmodifiableList(workers);
+   }
+}
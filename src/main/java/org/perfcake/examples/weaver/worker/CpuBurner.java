@@ -0,0 +1,181 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performs a calibrated amount of real CPU work.
+ *
+ * A unit of work is a fixed number of steps of a xorshift random number generator. The steps cannot be folded into
+ * a closed form and their result is published to a volatile field, so the JIT compiler cannot eliminate them.
+ * The number of units per microsecond is calibrated once, either explicitly by {@link #calibrate()} while the other threads
+ * are idle, or when the work is first used. The calibration takes the fastest of short measurements after a warm-up, which is
+ * the speed of a single undisturbed core. The measurements go on until the fastest one has not improved for a while, so that
+ * a late compilation does not spoil the result.
+ *
+ * The work is fixed, it does not stop at a deadline. When there are more busy threads than cores, the work takes
+ * longer in wall-clock time while the CPU time stays the same, just like in a real compute-bound service.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class CpuBurner {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(CpuBurner.class);
+
+   /**
+    * Number of generator steps in a unit of work.
+    */
+   private static final int UNIT_STEPS = 64;
+
+   /**
+    * How long to warm up the JIT compiler before the calibration in milliseconds.
+    */
+   private static final long WARM_UP = 200;
+
+   /**
+    * Number of consecutive calibration measurements without any improvement that end the calibration.
+    */
+   private static final int STABLE_ROUNDS = 10;
+
+   /**
+    * Maximum number of calibration measurements.
+    */
+   private static final int MAX_ROUNDS = 100;
+
+   /**
+    * Duration of a single calibration measurement in milliseconds.
+    */
+   private static final long ROUND = 20;
+
+   /**
+    * Calibrated number of units of work per microsecond, 0 until the calibration is done.
+    */
+   private static volatile double unitsPerMicro = 0;
+
+   /**
+    * Publishes the results of the work.
+    */
+   private static volatile long sink;
+
+   private CpuBurner() {
+   }
+
+   /**
+    * Calibrates the work unless it was already calibrated. It should be called while the other threads are idle,
+    * because the other busy threads skew the measurement.
+    */
+   public static synchronized void calibrate() {
+      if (unitsPerMicro == 0) {
+         unitsPerMicro = measure();
+      }
+   }
+
+   /**
+    * Measures how many units of work a single core performs per microsecond.
+    *
+    * @return The number of units per microsecond.
+    */
+   private static double measure() {
+      long units = 1;
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(WARM_UP)) {
+         work(units);
+         units = Math.min(units * 2, 1_000);
+      }
+
+      double best = 0;
+      for (int i = 0, stable = 0; i < MAX_ROUNDS && stable < STABLE_ROUNDS; i++, stable++) {
+         long done = 0;
+         long elapsed;
+         start = System.nanoTime();
+         do {
+            work(units);
+            done += units;
+            elapsed = System.nanoTime() - start;
+         } while (elapsed < TimeUnit.MILLISECONDS.toNanos(ROUND));
+
+         final double speed = done * 1_000d / elapsed;
+         if (speed > best * 1.01) {
+            stable = 0;
+         }
+         best = Math.max(best, speed);
+      }
+
+      log.info(String.format("Calibrated CPU work to %.1f units per microsecond.", best));
+
+      return best;
+   }
+
+   /**
+    * Performs the given amount of work.
+    *
+    * @param units
+    *       The number of units of work.
+    */
+   private static void work(final long units) {
+      long x = ThreadLocalRandom.current().nextLong() | 1;
+
+      for (long i = 0; i < units; i++) {
+         for (int j = 0; j < UNIT_STEPS; j++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+         }
+      }
+
+      sink = x;
+   }
+
+   /**
+    * Performs the amount of work that takes the given time on an undisturbed core.
+    *
+    * @param micros
+    *       The time in microseconds.
+    */
+   public static void burn(final double micros) {
+      if (micros > 0) {
+         work(Math.round(micros * getUnitsPerMicro()));
+      }
+   }
+
+   /**
+    * Gets the calibrated number of units of work per microsecond. Calibrates the work when it was not calibrated yet.
+    *
+    * @return The number of units per microsecond.
+    */
+   public static double getUnitsPerMicro() {
+      double units = unitsPerMicro;
+
+      if (units == 0) {
+         calibrate();
+         units = unitsPerMicro;
+      }
+
+      return units;
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Burns CPU before it processes the requests in an ordinary way.
+ *
+ * The amount of work per request is given by the time it takes on an undisturbed core, as calibrated by {@link CpuBurner}
+ * before the workers are created, or when the first worker is created outside of Weaver. The time is either constant or drawn
+ * from a uniform distribution between zero and twice the time or from an exponential distribution with the given mean, see {@link Distribution}.
+ * The worker is blocking, so the work is always done by the executor threads and the number of threads decides how many cores
+ * the service can saturate.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class CpuWorker extends NormalWorker {
+
+   /**
+    * Mean CPU time per request in microseconds.
+    */
+   private long cpuTime = 1000;
+
+   /**
+    * Distribution of the CPU time, constant, uniform or exponential.
+    */
+   private Distribution distribution = Distribution.CONSTANT;
+
+   /**
+    * Creates the worker and calibrates the work unless it was already calibrated.
+    */
+   public CpuWorker() {
+      CpuBurner.getUnitsPerMicro();
+   }
+
+   @Override
+   public void work(final RoutingContext context) throws Exception {
+      CpuBurner.burn(distribution.sample(cpuTime));
+      super.work(context);
+   }
+
+   @Override
+   public boolean isNonBlocking() {
+      return false;
+   }
+
+   public long getCpuTime() {
+      return cpuTime;
+   }
+
+   public void setCpuTime(final long cpuTime) {
+      this.cpuTime = cpuTime;
+   }
+
+   public String getDistribution() {
+      return distribution.toString();
+   }
+
+   public void setDistribution(final String distribution) {
+      this.distribution = Distribution.parse(distribution);
+   }
+}
@@ -19,14 +19,16 @@
  */
 package org.perfcake.examples.weaver.worker;
 
+import io.vertx.core.Future;
 import io.vertx.ext.web.RoutingContext;
 
 /**
  * Delays the processing of the requests by custom period.
+ * When used asynchronously, the delay is scheduled on a Vert.x timer and no thread is blocked while waiting.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-public class DelayWorker extends NormalWorker {
+public class DelayWorker extends NormalWorker implements AsyncWorker {
 
    /**
     * The delay period.
@@ -44,6 +46,37 @@ public class DelayWorker extends NormalWorker {
       super.work(context);
    }
 
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      if (delay <= 0) {
+         super.work(context);
+         return Future.succeededFuture();
+      }
+
+      final Future<Void> future = Future.future();
+      context.vertx().setTimer(delay, timerId -> {
+         try {
+            super.work(context);
+            future.complete();
+         } catch (Exception e) {
+            future.fail(e);
+         }
+      });
+
+      return future;
+   }
+
+   /**
+    * The delay is scheduled on a timer, so only this very class is known not to block. A subclass is run by the executor
+    * unless it declares itself non-blocking by overriding this method.
+    *
+    * @return True iff the worker is not a subclass.
+    */
+   @Override
+   public boolean isNonBlocking() {
+      return getClass() == DelayWorker.class;
+   }
+
    public int getDelay() {
       return delay;
    }
@@ -0,0 +1,128 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution of the random amounts drawn by the workers per request, e.g. the CPU time or the payload size.
+ * The amount is either constant, or drawn from a uniform distribution, or from an exponential distribution with the given mean.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public enum Distribution {
+
+   /**
+    * Always the mean.
+    */
+   CONSTANT,
+
+   /**
+    * Uniformly distributed between the bounds.
+    */
+   UNIFORM,
+
+   /**
+    * Exponentially distributed with the mean, truncated to the bounds.
+    */
+   EXPONENTIAL;
+
+   /**
+    * Probability of an exponential amount exceeding the default upper bound.
+    */
+   static final double TAIL = 1e-6;
+
+   /**
+    * Gets the distribution by its name.
+    *
+    * @param name
+    *       The distribution name, constant, uniform or exponential.
+    * @return The distribution.
+    * @throws IllegalArgumentException
+    *       When there is no such distribution.
+    */
+   public static Distribution parse(final String name) {
+      for (final Distribution distribution : values()) {
+         if (distribution.toString().equals(name)) {
+            return distribution;
+         }
+      }
+
+      throw new IllegalArgumentException("Unknown distribution " + name + ", use constant, uniform or exponential.");
+   }
+
+   /**
+    * Draws an amount with the given mean. The uniform amounts are between zero and twice the mean, the exponential ones are not truncated.
+    *
+    * @param mean
+    *       The mean amount.
+    * @return The amount.
+    */
+   public double sample(final double mean) {
+      return sample(mean, 0, this == UNIFORM ? 2 * mean : Double.POSITIVE_INFINITY);
+   }
+
+   /**
+    * Draws an amount with the given mean within the bounds. The constant amount is always the mean regardless of the bounds.
+    *
+    * @param mean
+    *       The mean amount, used by the constant and the exponential distributions.
+    * @param min
+    *       The lower bound.
+    * @param max
+    *       The upper bound, exclusive for the uniform distribution.
+    * @return The amount.
+    */
+   public double sample(final double mean, final double min, final double max) {
+      switch (this) {
+         case UNIFORM:
+            return min + ThreadLocalRandom.current().nextDouble() * (max - min);
+         case EXPONENTIAL:
+            return Math.min(max, Math.max(min, -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * mean));
+         default:
+            return mean;
+      }
+   }
+
+   /**
+    * Gets the default upper bound of the amounts with the given mean, twice the mean for the uniform distribution
+    * and the mean multiplied by ln(1 / {@link #TAIL}), i.e. about 14 times the mean, for the exponential one.
+    *
+    * @param mean
+    *       The mean amount.
+    * @return The default upper bound.
+    */
+   public long getDefaultMax(final long mean) {
+      switch (this) {
+         case UNIFORM:
+            return 2 * mean;
+         case EXPONENTIAL:
+            return (long) Math.ceil(mean * Math.log(1 / TAIL));
+         default:
+            return mean;
+      }
+   }
+
+   @Override
+   public String toString() {
+      return name().toLowerCase(Locale.ROOT);
+   }
+}
@@ -0,0 +1,337 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves the response bodies from files. Either a single file is always served, or the file is chosen per request from a directory
+ * by the request path relative to the route or by the value of a request header. The files outside of the directory are never served,
+ * not even through symbolic links, and the requests for anything else than a readable regular file are answered with 404.
+ *
+ * The files are sent by the Vert.x sendFile operation, which passes them from the page cache directly to the socket
+ * without copying them to the Java heap (on plain HTTP/1.x connections, HTTP/2 sends them in chunks).
+ * In the mmap mode, the files up to the given size are memory-mapped on the first request and the mapping is kept
+ * and shared by all the workers, which avoids opening the small hot files again and again. The mappings are kept up to
+ * a total size, the least recently used ones are dropped above it. The mapped files are expected not to change while they are served.
+ * The files are looked up and opened by blocking file system calls, so the worker is always run by the executor threads.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class FileWorker implements AsyncWorker {
+
+   /**
+    * Maximum total size of the memory-mapped files kept in bytes.
+    */
+   private static final long MAX_MAPPED_SIZE = 256L * 1024 * 1024;
+
+   /**
+    * Memory-mapped files shared by all the workers, weighed by their sizes.
+    */
+   private static final Cache<Path, MappedFile> mapped = CacheBuilder.newBuilder().maximumWeight(MAX_MAPPED_SIZE)
+         .weigher((Path path, MappedFile file) -> Math.max(1, file.getBuffer().length())).build();
+
+   /**
+    * Status code of the responses with the file.
+    */
+   private int statusCode = 200;
+
+   /**
+    * The file to be served to all the requests, takes precedence over the directory.
+    */
+   private String file = null;
+
+   /**
+    * The directory with the files to be served.
+    */
+   private String directory = null;
+
+   /**
+    * The real path of the directory.
+    */
+   private Path base = null;
+
+   /**
+    * Name of the request header with the file name relative to the directory. When not set, the request path is used.
+    */
+   private String header = null;
+
+   /**
+    * The response content type. When not set, it is derived from the file name extension.
+    */
+   private String contentType = null;
+
+   /**
+    * Whether the small files should be memory-mapped.
+    */
+   private boolean mmap = false;
+
+   /**
+    * Maximum size of the memory-mapped files in bytes, the larger files are always sent by sendFile.
+    */
+   private long mmapMaxSize = 1024 * 1024;
+
+   @Override
+   public void work(final RoutingContext context) throws Exception {
+      workAsync(context);
+   }
+
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      final HttpServerResponse response = context.response();
+      if (response.ended()) { // e.g. the request body was too large
+         return Future.succeededFuture();
+      }
+
+      final Path path = file != null ? Paths.get(file) : resolve(header != null ? context.request().getHeader(header) : WorkerThread.getRelativePath(context));
+      if (path == null || !Files.isRegularFile(path) || !Files.isReadable(path)) {
+         response.setStatusCode(404).end();
+         return Future.succeededFuture();
+      }
+
+      response.setStatusCode(statusCode);
+      if (contentType != null) {
+         response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+      }
+
+      if (mmap) {
+         final MappedFile mappedFile = map(path, mmapMaxSize);
+         if (mappedFile != null) {
+            if (contentType == null && mappedFile.getContentType() != null) {
+               response.putHeader(HttpHeaders.CONTENT_TYPE, mappedFile.getContentType());
+            }
+            response.end(mappedFile.getBuffer());
+            return Future.succeededFuture();
+         }
+      }
+
+      final Future<Void> future = Future.future();
+      response.sendFile(path.toString(), result -> {
+         if (result.failed()) {
+            if (response.headWritten()) {
+               response.close(); // the client cannot tell an incomplete body otherwise
+            } else {
+               response.setStatusCode(500).end();
+            }
+         }
+         future.complete();
+      });
+
+      return future;
+   }
+
+   /**
+    * Resolves the requested file in the directory.
+    *
+    * @param name
+    *       The file name relative to the directory, may start with a slash.
+    * @return The real path of the file, or null when no file is requested, the file does not exist, or it is outside of the directory.
+    */
+   Path resolve(final String name) {
+      if (base == null || name == null) {
+         return null;
+      }
+
+      String relative = name;
+      while (relative.startsWith("/")) {
+         relative = relative.substring(1);
+      }
+
+      try {
+         final Path path = base.resolve(relative).normalize();
+         if (!path.startsWith(base) || path.equals(base)) {
+            return null;
+         }
+
+         // symbolic links inside of the directory can still point outside of it
+         final Path real = path.toRealPath();
+         return real.startsWith(base) && !real.equals(base) ? real : null;
+      } catch (InvalidPathException | IOException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Gets the memory-mapped file, maps it unless it is already mapped. The files that are not mapped are not remembered.
+    *
+    * @param path
+    *       The file path.
+    * @param maxSize
+    *       Maximum size of the file to be mapped in bytes.
+    * @return The read-only mapped file, or null when the file is too large or it cannot be mapped.
+    */
+   static MappedFile map(final Path path, final long maxSize) {
+      MappedFile file = mapped.getIfPresent(path);
+
+      if (file == null) {
+         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > maxSize) {
+               return null;
+            }
+            file = new MappedFile(Buffer.buffer(Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)).asReadOnly()), probeContentType(path));
+         } catch (IOException e) {
+            return null; // let sendFile report the problem
+         }
+
+         final MappedFile previous = mapped.asMap().putIfAbsent(path, file);
+         if (previous != null) {
+            file = previous;
+         }
+      }
+
+      return file;
+   }
+
+   /**
+    * Determines the content type of a file by the platform file type detectors, or by the file name extension.
+    *
+    * @param path
+    *       The file path.
+    * @return The content type, or null when it is not known.
+    */
+   private static String probeContentType(final Path path) {
+      String type = null;
+      try {
+         type = Files.probeContentType(path);
+      } catch (IOException e) {
+         // fall back to the file name
+      }
+
+      return type != null ? type : URLConnection.guessContentTypeFromName(path.getFileName().toString());
+   }
+
+   public int getStatusCode() {
+      return statusCode;
+   }
+
+   public void setStatusCode(final int statusCode) {
+      this.statusCode = statusCode;
+   }
+
+   public String getFile() {
+      return file;
+   }
+
+   public void setFile(final String file) {
+      this.file = file;
+   }
+
+   public String getDirectory() {
+      return directory;
+   }
+
+   public void setDirectory(final String directory) {
+      this.directory = directory;
+      this.base = directory == null ? null : realPath(Paths.get(directory));
+   }
+
+   /**
+    * Gets the real path of the directory.
+    *
+    * @param directory
+    *       The directory.
+    * @return The real path, or the absolute normalized path when the directory does not exist.
+    */
+   private static Path realPath(final Path directory) {
+      try {
+         return directory.toRealPath();
+      } catch (IOException e) {
+         return directory.toAbsolutePath().normalize();
+      }
+   }
+
+   public String getHeader() {
+      return header;
+   }
+
+   public void setHeader(final String header) {
+      this.header = header;
+   }
+
+   public String getContentType() {
+      return contentType;
+   }
+
+   public void setContentType(final String contentType) {
+      this.contentType = contentType;
+   }
+
+   public boolean isMmap() {
+      return mmap;
+   }
+
+   public void setMmap(final boolean mmap) {
+      this.mmap = mmap;
+   }
+
+   public long getMmapMaxSize() {
+      return mmapMaxSize;
+   }
+
+   public void setMmapMaxSize(final long mmapMaxSize) {
+      this.mmapMaxSize = mmapMaxSize;
+   }
+
+   /**
+    * A memory-mapped file.
+    */
+   static final class MappedFile {
+
+      /**
+       * The read-only contents of the file.
+       */
+      private final Buffer buffer;
+
+      /**
+       * The content type of the file, null when it is not known.
+       */
+      private final String contentType;
+
+      private MappedFile(final Buffer buffer, final String contentType) {
+         this.buffer = buffer;
+         this.contentType = contentType;
+      }
+
+      Buffer getBuffer() {
+         return buffer;
+      }
+
+      String getContentType() {
+         return contentType;
+      }
+   }
+}
@@ -0,0 +1,205 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Objects shared by the workers of named groups, e.g. a common rate limit.
+ *
+ * The groups belong to a configuration. While a configuration is being loaded, the groups are collected separately.
+ * A group defined with the same settings as in the current configuration keeps its object, a group with changed settings
+ * gets a new one. Once the configuration is in place, its groups replace the current ones, so that the groups no longer
+ * configured are dropped. When the configuration cannot be loaded, its groups are thrown away. A group must be defined with
+ * the same settings everywhere in a configuration, otherwise only one of the definitions is used and the conflict is reported
+ * (the lines are loaded in parallel, so it is not necessarily the first one).
+ *
+ * @param <T>
+ *       Type of the shared objects.
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class GroupRegistry<T> {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(GroupRegistry.class);
+
+   /**
+    * All the registries.
+    */
+   private static final List<GroupRegistry<?>> registries = new CopyOnWriteArrayList<>();
+
+   /**
+    * What the shared objects are, used in the log messages.
+    */
+   private final String kind;
+
+   /**
+    * The groups of the current configuration.
+    */
+   private volatile Map<String, Group<T>> current = Collections.emptyMap();
+
+   /**
+    * The groups of the configuration being loaded, null when no configuration is being loaded.
+    */
+   private volatile ConcurrentMap<String, Group<T>> loading = null;
+
+   /**
+    * Creates a new registry.
+    *
+    * @param kind
+    *       What the shared objects are, used in the log messages.
+    */
+   public GroupRegistry(final String kind) {
+      this.kind = kind;
+      registries.add(this);
+   }
+
+   /**
+    * Starts collecting the groups of a new configuration in all the registries.
+    */
+   public static void begin() {
+      registries.forEach(registry -> registry.loading = new ConcurrentHashMap<>());
+   }
+
+   /**
+    * Replaces the current groups by the groups of the new configuration in all the registries.
+    */
+   public static void commit() {
+      registries.forEach(GroupRegistry::commitLoading);
+   }
+
+   /**
+    * Throws away the groups of the new configuration in all the registries.
+    */
+   public static void rollback() {
+      registries.forEach(registry -> registry.loading = null);
+   }
+
+   /**
+    * Gets the object shared by a group, creates it when the group is not defined yet or its settings changed.
+    *
+    * @param group
+    *       The group name.
+    * @param settings
+    *       Description of the settings of the shared object, groups with equal settings are considered the same.
+    * @param factory
+    *       Creates the shared object.
+    * @return The shared object.
+    */
+   public T get(final String group, final String settings, final Supplier<T> factory) {
+      final ConcurrentMap<String, Group<T>> groups = loading;
+
+      if (groups != null) {
+         return groups.computeIfAbsent(group, key -> {
+            final Group<T> existing = current.get(key);
+            if (existing != null && existing.settings.equals(settings)) {
+               return existing;
+            }
+
+            log.info((existing == null ? "Creating " : "Recreating ") + kind + " for group " + key + " with " + settings + ".");
+            return new Group<>(settings, factory.get());
+         }).resolve(kind, group, settings);
+      }
+
+      synchronized (this) {
+         Group<T> existing = current.get(group);
+         if (existing == null) {
+            log.info("Creating " + kind + " for group " + group + " with " + settings + ".");
+            existing = new Group<>(settings, factory.get());
+            final Map<String, Group<T>> updated = new HashMap<>(current);
+            updated.put(group, existing);
+            current = Collections.unmodifiableMap(updated);
+         }
+
+         return existing.resolve(kind, group, settings);
+      }
+   }
+
+   /**
+    * Replaces the current groups by the groups of the new configuration.
+    */
+   private synchronized void commitLoading() {
+      if (loading != null) {
+         current = Collections.unmodifiableMap(new HashMap<>(loading));
+         loading = null;
+      }
+   }
+
+   /**
+    * A group with its shared object.
+    *
+    * @param <T>
+    *       Type of the shared object.
+    */
+   private static final class Group<T> {
+
+      /**
+       * Description of the settings of the shared object.
+       */
+      private final String settings;
+
+      /**
+       * The shared object.
+       */
+      private final T value;
+
+      /**
+       * Whether a conflicting definition of the group has been reported.
+       */
+      private final AtomicBoolean reported = new AtomicBoolean(false);
+
+      private Group(final String settings, final T value) {
+         this.settings = settings;
+         this.value = value;
+      }
+
+      /**
+       * Gets the shared object and reports the first definition of the group with different settings.
+       *
+       * @param kind
+       *       What the shared object is.
+       * @param group
+       *       The group name.
+       * @param requested
+       *       The requested settings.
+       * @return The shared object.
+       */
+      private T resolve(final String kind, final String group, final String requested) {
+         if (!settings.equals(requested) && reported.compareAndSet(false, true)) {
+            log.warn("The " + kind + " group " + group + " is already defined with " + settings + ", ignoring the definition with " + requested + ".");
+         }
+
+         return value;
+      }
+   }
+}
@@ -0,0 +1,273 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free storage of leaked memory.
+ *
+ * The leaked objects are kept in a non-blocking queue and their total size is counted atomically, so that the workers leaking
+ * in parallel never wait for each other. When a limit is set, the oldest objects are evicted to keep the retained size under the limit.
+ * Besides storing the given objects, the store can allocate chunks of heap or direct memory either one per request or at a target
+ * growth rate. The growth rate is measured from the creation of the store and each request leaks all the chunks that are due,
+ * but at most one second of growth at once, so that a quiet period does not end with a huge allocation.
+ * Stores can be shared by named groups so that all the workers in the group grow a single common leak.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class LeakStore {
+
+   /**
+    * Kind of memory being leaked.
+    */
+   public enum Mode {
+      /**
+       * Request bodies are stored on heap.
+       */
+      BODY,
+
+      /**
+       * Chunks of heap memory are allocated.
+       */
+      HEAP,
+
+      /**
+       * Chunks of native memory are allocated as direct buffers.
+       */
+      DIRECT
+   }
+
+   /**
+    * Stores shared by the named groups.
+    */
+   private static final GroupRegistry<LeakStore> groups = new GroupRegistry<>("leak");
+
+   /**
+    * Kind of memory being leaked.
+    */
+   private final Mode mode;
+
+   /**
+    * Size of the allocated chunks in bytes.
+    */
+   private final int chunkSize;
+
+   /**
+    * Target growth rate in bytes per second, 0 when a single chunk is leaked per request.
+    */
+   private final long rate;
+
+   /**
+    * Maximum number of bytes retained, 0 for no limit.
+    */
+   private final long limit;
+
+   /**
+    * When the growth started in nanoseconds.
+    */
+   private final long start;
+
+   /**
+    * The leaked objects from the oldest.
+    */
+   private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+   /**
+    * Number of bytes currently retained.
+    */
+   private final AtomicLong retained = new AtomicLong();
+
+   /**
+    * Number of chunks leaked at the target growth rate so far.
+    */
+   private final AtomicLong chunks = new AtomicLong();
+
+   /**
+    * Creates a new store.
+    *
+    * @param mode
+    *       Kind of memory being leaked.
+    * @param chunkSize
+    *       Size of the allocated chunks in bytes.
+    * @param rate
+    *       Target growth rate in bytes per second, 0 to leak a single chunk per request.
+    * @param limit
+    *       Maximum number of bytes retained, 0 for no limit.
+    */
+   public LeakStore(final Mode mode, final int chunkSize, final long rate, final long limit) {
+      this(mode, chunkSize, rate, limit, System.nanoTime());
+   }
+
+   /**
+    * Creates a new store with the growth started at the given time.
+    *
+    * @param mode
+    *       Kind of memory being leaked.
+    * @param chunkSize
+    *       Size of the allocated chunks in bytes.
+    * @param rate
+    *       Target growth rate in bytes per second, 0 to leak a single chunk per request.
+    * @param limit
+    *       Maximum number of bytes retained, 0 for no limit.
+    * @param start
+    *       When the growth started in nanoseconds.
+    */
+   LeakStore(final Mode mode, final int chunkSize, final long rate, final long limit, final long start) {
+      if (chunkSize <= 0 || rate < 0 || limit < 0) {
+         throw new IllegalArgumentException("Chunk size must be positive, rate and limit must not be negative.");
+      }
+
+      this.mode = mode;
+      this.chunkSize = chunkSize;
+      this.rate = rate;
+      this.limit = limit;
+      this.start = start;
+   }
+
+   /**
+    * Gets the store shared by the given group. The store is created with the given parameters
+    * when the group does not exist yet or its parameters changed by a reload, see {@link GroupRegistry}.
+    *
+    * @param group
+    *       The group name.
+    * @param mode
+    *       Kind of memory being leaked.
+    * @param chunkSize
+    *       Size of the allocated chunks in bytes.
+    * @param rate
+    *       Target growth rate in bytes per second, 0 to leak a single chunk per request.
+    * @param limit
+    *       Maximum number of bytes retained, 0 for no limit.
+    * @return The shared store.
+    */
+   public static LeakStore forGroup(final String group, final Mode mode, final int chunkSize, final long rate, final long limit) {
+      return groups.get(group, mode.name().toLowerCase(Locale.ROOT) + " mode, chunks of " + chunkSize + " B, rate " + rate + " B/s and limit " + limit + " B",
+            () -> new LeakStore(mode, chunkSize, rate, limit));
+   }
+
+   /**
+    * Leaks the chunks that are due for a single request.
+    */
+   public void leak() {
+      leak(System.nanoTime());
+   }
+
+   /**
+    * Leaks the chunks that are due for a single request at the given time.
+    *
+    * @param now
+    *       The current time in nanoseconds.
+    * @return The number of chunks leaked.
+    */
+   long leak(final long now) {
+      final long count;
+
+      if (rate == 0) {
+         count = 1;
+      } else {
+         final long due = (long) ((double) rate * (now - start) / TimeUnit.SECONDS.toNanos(1) / chunkSize);
+         final long backlog = Math.max(1, rate / chunkSize);
+         long current;
+
+         do {
+            current = chunks.get();
+            if (current >= due) {
+               return 0;
+            }
+         } while (!chunks.compareAndSet(current, due));
+
+         count = due - Math.max(current, due - backlog);
+      }
+
+      for (long i = 0; i < count; i++) {
+         retain(mode == Mode.DIRECT ? ByteBuffer.allocateDirect(chunkSize) : new byte[chunkSize], chunkSize);
+      }
+
+      return count;
+   }
+
+   /**
+    * Keeps the object forever or until it is evicted.
+    *
+    * @param item
+    *       The object to keep.
+    * @param size
+    *       The size of the object in bytes.
+    */
+   public void retain(final Object item, final long size) {
+      entries.offer(new Entry(item, size));
+
+      if (retained.addAndGet(size) > limit && limit > 0) {
+         evict();
+      }
+   }
+
+   /**
+    * Evicts the oldest objects until the retained size is under the limit. The native memory of the evicted direct buffers is freed
+    * once the garbage collector reclaims them.
+    */
+   private void evict() {
+      while (retained.get() > limit) {
+         final Entry entry = entries.poll();
+         if (entry == null) {
+            return;
+         }
+
+         retained.addAndGet(-entry.size);
+      }
+   }
+
+   /**
+    * Gets the number of bytes currently retained.
+    *
+    * @return The number of bytes retained.
+    */
+   public long getRetained() {
+      return retained.get();
+   }
+
+   /**
+    * Gets the kind of memory being leaked.
+    *
+    * @return The kind of memory being leaked.
+    */
+   public Mode getMode() {
+      return mode;
+   }
+
+   /**
+    * A leaked object with its size.
+    */
+   private static final class Entry {
+      private final Object item;
+      private final long size;
+
+      private Entry(final Object item, final long size) {
+         this.item = item;
+         this.size = size;
+      }
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.perfcake.examples.weaver.metrics.RequestMetrics;
+
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Answers the requests that cannot be admitted for processing right away with a configured status code.
+ * This happens when the executor queue is full, or when a request waited in the queue for too long. The latter is detected
+ * by a timer on the event loop of the request, see {@link WorkerThread#submit(ThreadPoolExecutor)}, so that the client gets the answer
+ * as soon as the timeout elapses.
+ * The requests rejected by an executor that was shut down are not answered, they are left to the caller to be dispatched elsewhere.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class LoadShedder implements RejectedExecutionHandler {
+
+   /**
+    * The status code to return for rejected requests.
+    */
+   private final int statusCode;
+
+   /**
+    * Value of the Retry-After header in seconds. Zero or less means that no header is returned.
+    */
+   private final int retryAfter;
+
+   /**
+    * Maximum time a request can wait in the queue in milliseconds. Zero or less means no limit.
+    */
+   private final long queueTimeout;
+
+   /**
+    * Creates a new load shedder.
+    *
+    * @param statusCode
+    *       The status code to return for rejected requests.
+    * @param retryAfter
+    *       Value of the Retry-After header in seconds, zero or less for no header.
+    * @param queueTimeout
+    *       Maximum time in milliseconds a request can wait in the queue, zero or less for no limit.
+    */
+   public LoadShedder(final int statusCode, final int retryAfter, final long queueTimeout) {
+      this.statusCode = statusCode;
+      this.retryAfter = retryAfter;
+      this.queueTimeout = queueTimeout;
+   }
+
+   @Override
+   public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+      if (r instanceof WorkerThread && !executor.isShutdown()) {
+         ((WorkerThread) r).exit();
+         final RoutingContext context = ((WorkerThread) r).getContext();
+         final RequestMetrics metrics = RequestMetrics.of(context);
+         if (metrics != null) {
+            metrics.rejected();
+         }
+         shed(context);
+      } else {
+         throw new RejectedExecutionException("Task " + r + " rejected from " + executor);
+      }
+   }
+
+   /**
+    * Gets the maximum time a request can wait in the queue.
+    *
+    * @return The maximum time in milliseconds, zero or less for no limit.
+    */
+   public long getQueueTimeout() {
+      return queueTimeout;
+   }
+
+   /**
+    * Immediately answers the request with the configured status code.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    */
+   public void shed(final RoutingContext context) {
+      final HttpServerResponse response = context.response();
+      response.setStatusCode(statusCode);
+      if (retryAfter > 0) {
+         response.putHeader("Retry-After", Integer.toString(retryAfter));
+      }
+      response.end();
+      BodyStream.release(context);
+
+      final RequestMetrics metrics = RequestMetrics.of(context);
+      if (metrics != null) {
+         metrics.completed(response);
+      }
+   }
+}
@@ -28,6 +28,13 @@ import java.util.Properties;
  */
 public interface MapConfigurable {
 
+   /**
+    * The configuration property identifying the configuration line that created the worker. It is set by Weaver, so that the workers
+    * of a single line can share their state (e.g. a rate limit). The underlying workers of a {@link CompositeWorker} get the identity
+    * of the line extended by their number.
+    */
+   String LINE = "line";
+
    /**
     * Configure the worker from the given configuration map.
     *
@@ -19,14 +19,21 @@
  */
 package org.perfcake.examples.weaver.worker;
 
+import io.vertx.core.Future;
 import io.vertx.ext.web.RoutingContext;
 
+import java.util.Properties;
+
 /**
  * Limits the maximal number of requests per second before it returns a bad response code.
  *
+ * The limit is a token bucket allowing bursts of the configured size. The limit is shared by all the workers created from a single
+ * configuration line, or by all the workers in a group when it is set, regardless of how the requests are spread among them.
+ * So the maximum speed is the limit of the whole emulated service. With shared set to false and no group, each worker has its own limit.
+ *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-public class MaxSpeedWorker extends DelayWorker {
+public class MaxSpeedWorker extends DelayWorker implements MapConfigurable {
 
    /**
     * How quickly (calls per second) can this service be called before it returns bad code.
@@ -39,21 +46,83 @@ public class MaxSpeedWorker extends DelayWorker {
    private int badCode = 404;
 
    /**
-    * When the service was last called.
+    * How many calls can come at once within the limit.
+    */
+   private int burst = 1;
+
+   /**
+    * Name of the group sharing the limit, null when the limit is shared by the configuration line.
+    */
+   private String group = null;
+
+   /**
+    * Whether the workers of the configuration line share the limit when there is no group.
+    */
+   private boolean shared = true;
+
+   /**
+    * Identity of the configuration line that created the worker, null when it was not created by Weaver.
     */
-   private long lastCalled = 0L;
+   private String line = null;
+
+   /**
+    * The rate limiter, created once the worker is configured.
+    */
+   private volatile RateLimiter rateLimiter = null;
+
+   @Override
+   public boolean configure(final Properties configuration) {
+      line = configuration.getProperty(LINE);
+      getRateLimiter(); // join the group of the configuration being loaded
+      return super.configure(configuration);
+   }
 
    @Override
    public void work(final RoutingContext context) throws Exception {
-      if (System.nanoTime() - lastCalled > 1_000_000_000d / maxSpeed) {
+      if (getRateLimiter().tryAcquire()) {
          super.work(context);
-         lastCalled = System.nanoTime();
       } else {
-         lastCalled = System.nanoTime();
          context.response().setStatusCode(badCode).end("bad bad bad");
       }
    }
 
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      if (getRateLimiter().tryAcquire()) {
+         return super.workAsync(context);
+      } else {
+         context.response().setStatusCode(badCode).end("bad bad bad");
+         return Future.succeededFuture();
+      }
+   }
+
+   @Override
+   public boolean isNonBlocking() {
+      return getClass() == MaxSpeedWorker.class;
+   }
+
+   /**
+    * Gets the rate limiter of this worker, creates it on the first call.
+    *
+    * @return The rate limiter.
+    */
+   RateLimiter getRateLimiter() {
+      RateLimiter limiter = rateLimiter;
+
+      if (limiter == null) {
+         synchronized (this) {
+            limiter = rateLimiter;
+            if (limiter == null) {
+               final String limiterGroup = group != null ? group : (shared ? line : null);
+               limiter = limiterGroup == null ? new RateLimiter(maxSpeed, burst) : RateLimiter.forGroup(limiterGroup, maxSpeed, burst);
+               rateLimiter = limiter;
+            }
+         }
+      }
+
+      return limiter;
+   }
+
    public int getMaxSpeed() {
       return maxSpeed;
    }
@@ -69,4 +138,28 @@ public class MaxSpeedWorker extends DelayWorker {
    public void setBadCode(final int badCode) {
       this.badCode = badCode;
    }
+
+   public int getBurst() {
+      return burst;
+   }
+
+   public void setBurst(final int burst) {
+      this.burst = burst;
+   }
+
+   public String getGroup() {
+      return group;
+   }
+
+   public void setGroup(final String group) {
+      this.group = group;
+   }
+
+   public boolean isShared() {
+      return shared;
+   }
+
+   public void setShared(final boolean shared) {
+      this.shared = shared;
+   }
 }
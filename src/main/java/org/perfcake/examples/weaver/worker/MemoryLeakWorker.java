@@ -19,43 +19,154 @@
  */
 package org.perfcake.examples.weaver.worker;
 
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.ext.web.RoutingContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Causes a memory leak by putting HTTP requests' bodies to a hash map using a dirty custom object without a proper
- * {@link #equals(Object)} and {@link #hashCode()} methods implementation.
+ * Causes a memory leak by keeping the HTTP requests' bodies forever (mode:body, the default).
  *
- * The hash map key (the register) name where the body is put can be specified by the {@link #keyHeader}.
- * The worker will look into the request's header to find the register name. If the specified header
- * is not found in the request a default register name will be used instead.
+ * Each body is kept together with its register name, so that the leaked bodies can be told apart in a heap dump.
+ * The worker looks for the register name in the request header specified by {@link #keyHeader}. If the header
+ * is not found in the request, a default register name is used instead.
+ *
+ * Instead of the bodies, the worker can leak chunks of {@link #size} bytes of heap (mode:heap) or native memory (mode:direct).
+ * By default, a single chunk is leaked per request. When {@link #rate} is set, the memory grows at the given number of bytes
+ * per second regardless of the number of requests as long as there are any. When {@link #limit} is set, the oldest leaked objects
+ * are released to keep the leak under the limit. The leaked memory is stored in a {@link LeakStore} without any locks,
+ * so the leak does not slow down the requests. Workers with the same {@link #group} share a single leak.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  * @author <a href="mailto:pavel.macik@gmail.com">Pavel Macík</a>
  */
-public class MemoryLeakWorker extends DelayWorker {
+public class MemoryLeakWorker extends DelayWorker implements MapConfigurable {
 
    /**
-    * Name of the HTTP header where a register key is specified.
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(MemoryLeakWorker.class);
+
+   /**
+    * Whether it has been reported that the bodies cannot be leaked when they are streamed.
+    */
+   private static final AtomicBoolean streamingReported = new AtomicBoolean(false);
+
+   /**
+    * Name of the HTTP header with the register name.
     */
    private String keyHeader = "register";
 
    /**
-    * A register that stores message bodies.
+    * What is leaked, body, heap or direct.
+    */
+   private LeakStore.Mode mode = LeakStore.Mode.BODY;
+
+   /**
+    * Size of the leaked chunks of heap or direct memory in bytes.
     */
-   private Map<BadKey, String> register = Collections.synchronizedMap(new HashMap<BadKey, String>());
+   private int size = 1024;
+
+   /**
+    * Target growth rate of the heap or direct memory leak in bytes per second, 0 = a single chunk per request.
+    */
+   private long rate = 0;
+
+   /**
+    * Maximum number of bytes leaked, the oldest leaked objects are released above it, 0 = unlimited.
+    */
+   private long limit = 0;
+
+   /**
+    * Name of the group sharing the leak, null when the leak is private to this worker.
+    */
+   private String group = null;
+
+   /**
+    * A register that stores message bodies or leaked memory, created once the worker is configured.
+    */
+   private volatile LeakStore register = null;
+
+   @Override
+   public boolean configure(final Properties configuration) {
+      getRegister(); // join the group of the configuration being loaded
+      return super.configure(configuration);
+   }
 
    @Override
    public void work(final RoutingContext context) throws Exception {
-      final String registerKey = context.request().getHeader(getKeyHeader());
-      final BadKey badKey = new BadKey(registerKey != null ? registerKey : "defaultRegister");
-      register.put(badKey, context.getBodyAsString());
+      leak(context);
       super.work(context);
    }
 
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      leak(context);
+      return super.workAsync(context);
+   }
+
+   /**
+    * An allocation of a direct buffer near the maximum direct memory size runs the garbage collector and sleeps,
+    * so the worker in the direct mode must not be run on the event loop.
+    *
+    * @return True iff the worker is not a subclass and it does not leak direct memory.
+    */
+   @Override
+   public boolean isNonBlocking() {
+      return getClass() == MemoryLeakWorker.class && mode != LeakStore.Mode.DIRECT;
+   }
+
+   /**
+    * Keeps the request body with its register name, or leaks the memory that is due in the other modes.
+    * A streamed body is not available, so only the register name is leaked then.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    */
+   private void leak(final RoutingContext context) {
+      final LeakStore store = getRegister();
+
+      if (store.getMode() == LeakStore.Mode.BODY) {
+         final Buffer body = context.getBody();
+         if (body == null && streamingReported.compareAndSet(false, true)) {
+            log.warn("Request bodies are streamed, the body mode leaks only the keys. Turn the streaming off to leak the bodies.");
+         }
+
+         final String registerKey = context.request().getHeader(getKeyHeader());
+         store.retain(new AbstractMap.SimpleImmutableEntry<>(registerKey != null ? registerKey : "defaultRegister", body != null ? body.getBytes() : new byte[0]),
+               body != null ? body.length() : 0);
+      } else {
+         store.leak();
+      }
+   }
+
+   /**
+    * Gets the register of this worker, creates it on the first call.
+    *
+    * @return The register.
+    */
+   private LeakStore getRegister() {
+      LeakStore store = register;
+
+      if (store == null) {
+         synchronized (this) {
+            store = register;
+            if (store == null) {
+               store = group == null ? new LeakStore(mode, size, rate, limit) : LeakStore.forGroup(group, mode, size, rate, limit);
+               register = store;
+            }
+         }
+      }
+
+      return store;
+   }
+
    /**
     * Get the name of the HTTP header where a register key is specified.
     *
@@ -66,7 +177,7 @@ public class MemoryLeakWorker extends DelayWorker {
    }
 
    /**
-    * Set the HTTP header that will contain the register name to where the message body is to be put.
+    * Set the HTTP header that will contain the register name kept with the message body.
     *
     * @param keyHeader
     *       The name of the header.
@@ -75,16 +186,43 @@ public class MemoryLeakWorker extends DelayWorker {
       this.keyHeader = keyHeader;
    }
 
-   /**
-    * A dirty custom hash map key implementation.
-    * Without a proper {@link #equals(Object)} and {@link #hashCode()} methods implementation the hash map
-    * will not be able to recognize an existing key and always create a new record.
-    */
-   private class BadKey {
-      public final String key;
+   public String getMode() {
+      return mode.name().toLowerCase(Locale.ROOT);
+   }
 
-      public BadKey(String key) {
-         this.key = key;
-      }
+   public void setMode(final String mode) {
+      this.mode = LeakStore.Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+   }
+
+   public int getSize() {
+      return size;
+   }
+
+   public void setSize(final int size) {
+      this.size = size;
+   }
+
+   public long getRate() {
+      return rate;
+   }
+
+   public void setRate(final long rate) {
+      this.rate = rate;
+   }
+
+   public long getLimit() {
+      return limit;
+   }
+
+   public void setLimit(final long limit) {
+      this.limit = limit;
+   }
+
+   public String getGroup() {
+      return group;
+   }
+
+   public void setGroup(final String group) {
+      this.group = group;
    }
 }
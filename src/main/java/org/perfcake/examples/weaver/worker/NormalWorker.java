@@ -19,14 +19,52 @@
  */
 package org.perfcake.examples.weaver.worker;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
 /**
  * Just processes the requests in an ordinary way. Can provide custom status code, status message, and response.
  *
+ * The response is encoded and compressed when the worker is configured, before it serves any request, and the worker holds it
+ * from then on. The encoded response is shared by all the workers with the same response and compression settings, so that it is
+ * encoded only once for the whole configuration line. A worker that is not configured (i.e. not created by Weaver) encodes the response
+ * on the first request.
+ * With compression set to true, the response is also compressed by gzip and deflate and the compressed response is sent
+ * to the clients that accept it. The mirrored request bodies are compressed per request only when compressMirror is set
+ * to true (streamed bodies are never compressed).
+ *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-public class NormalWorker implements Worker {
+public class NormalWorker implements Worker, MapConfigurable {
+
+   /**
+    * The supported content encodings in the order of preference.
+    */
+   static final String[] ENCODINGS = { "gzip", "deflate" };
+
+   /**
+    * The encoded responses shared by the workers, kept while a worker holds them. Every configured worker holds its encoded response,
+    * so the response is not encoded again while its configuration line is in use.
+    */
+   private static final Cache<String, EncodedResponse> encodedResponses = CacheBuilder.newBuilder().weakValues().build();
 
    /**
     * The status code to return.
@@ -44,28 +82,226 @@ public class NormalWorker implements Worker {
     */
    private String response = "";
 
+   /**
+    * The encoded response. Null until the worker is configured and after the response settings are changed.
+    */
+   private volatile EncodedResponse encodedResponse = null;
+
    /**
     * When set to true, the response returned is the same as the original request body. Also, the response property is ignored when
-    * this is set to true.
+    * this is set to true. A streamed request body is piped directly to the response.
     */
    private boolean mirrorRequest = false;
 
+   /**
+    * When set to true, the response is sent compressed to the clients accepting gzip or deflate content encoding.
+    */
+   private boolean compression = false;
+
+   /**
+    * When set to true, the mirrored request bodies are compressed too.
+    */
+   private boolean compressMirror = false;
+
+   /**
+    * The compression level from 0 (no compression) to 9 (best compression).
+    */
+   private int compressionLevel = 6;
+
+   /**
+    * Encodes and compresses the response once all the properties are set.
+    *
+    * @param configuration
+    *       Configuration properties, not used.
+    * @return Always true.
+    */
+   @Override
+   public boolean configure(final Properties configuration) {
+      if (response != null && !response.isEmpty()) {
+         getEncodedResponse();
+      }
+
+      return true;
+   }
+
    @Override
    public void work(final RoutingContext context) throws Exception {
+      if (context.response().ended()) { // e.g. the request body was too large
+         return;
+      }
+
       if (statusMessage != null) {
          context.response().setStatusMessage(statusMessage);
       }
       context.response().setStatusCode(statusCode);
 
       if (mirrorRequest) {
-         context.response().end(context.getBodyAsString());
+         final Buffer body = context.getBody();
+         final BodyStream stream = BodyStream.get(context);
+         if (body != null) {
+            final String encoding = compressMirror && body.length() > 0 ? negotiate(context) : null;
+            context.response().end(encoding != null ? Buffer.buffer(compress(body.getBytes(), encoding, compressionLevel)) : body);
+         } else if (stream != null) {
+            final HttpServerResponse response = context.response();
+            final String contentLength = context.request().getHeader(HttpHeaders.CONTENT_LENGTH);
+            if (contentLength != null) {
+               response.putHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
+            } else {
+               response.setChunked(true);
+            }
+            stream.pipeTo(response);
+         } else {
+            context.response().end();
+         }
       } else if (response != null && !response.isEmpty()) {
-         context.response().end(response);
+         final EncodedResponse encoded = getEncodedResponse();
+         final String encoding = encoded.isCompressed() ? negotiate(context) : null;
+         context.response().end(encoding != null ? encoded.getCompressed(encoding) : encoded.getBuffer());
       } else {
          context.response().end();
       }
    }
 
+   /**
+    * Only this very class is known not to block. A subclass can block in {@link #work(RoutingContext)}, so it is run by the executor
+    * unless it declares itself non-blocking by overriding this method. Compressing the mirrored request bodies per request
+    * takes too long for the event loop, so such a worker is run by the executor too.
+    *
+    * @return True iff the worker is not a subclass and it does not compress the mirrored request bodies.
+    */
+   @Override
+   public boolean isNonBlocking() {
+      return getClass() == NormalWorker.class && !(mirrorRequest && compressMirror);
+   }
+
+   /**
+    * Chooses the content encoding of the response by the Accept-Encoding request header and sets the corresponding response headers.
+    *
+    * @param context
+    *       HTTP routing context.
+    * @return The content encoding, or null when the response should not be compressed.
+    */
+   private String negotiate(final RoutingContext context) {
+      context.response().putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+
+      final String encoding = negotiate(context.request().getHeader(HttpHeaders.ACCEPT_ENCODING));
+      if (encoding != null) {
+         context.response().putHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+      }
+
+      return encoding;
+   }
+
+   /**
+    * Chooses the supported content encoding with the highest quality in the Accept-Encoding header.
+    * On a tie, the encoding that comes first in {@link #ENCODINGS} wins.
+    *
+    * @param acceptEncoding
+    *       The value of the Accept-Encoding header, may be null.
+    * @return The content encoding, or null when none of the supported encodings is acceptable.
+    */
+   static String negotiate(final String acceptEncoding) {
+      if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+         return null;
+      }
+
+      final double[] qualities = new double[ENCODINGS.length];
+      double wildcard = 0;
+      final boolean[] listed = new boolean[ENCODINGS.length];
+
+      for (final String part : acceptEncoding.split(",")) {
+         final String[] params = part.split(";");
+         final String coding = params[0].trim();
+         double quality = 1;
+         for (int i = 1; i < params.length; i++) {
+            final String param = params[i].trim();
+            if (param.startsWith("q=")) {
+               try {
+                  quality = Double.parseDouble(param.substring(2));
+               } catch (NumberFormatException e) {
+                  quality = 0;
+               }
+            }
+         }
+
+         if ("*".equals(coding)) {
+            wildcard = quality;
+         }
+         for (int i = 0; i < ENCODINGS.length; i++) {
+            if (ENCODINGS[i].equalsIgnoreCase(coding) || ("gzip".equals(ENCODINGS[i]) && "x-gzip".equalsIgnoreCase(coding))) {
+               qualities[i] = quality;
+               listed[i] = true;
+            }
+         }
+      }
+
+      String best = null;
+      double bestQuality = 0;
+      for (int i = 0; i < ENCODINGS.length; i++) {
+         final double quality = listed[i] ? qualities[i] : wildcard;
+         if (quality > bestQuality) {
+            best = ENCODINGS[i];
+            bestQuality = quality;
+         }
+      }
+
+      return best;
+   }
+
+   /**
+    * Compresses the data.
+    *
+    * @param data
+    *       The data to compress.
+    * @param encoding
+    *       The content encoding, gzip or deflate (zlib format).
+    * @param level
+    *       The compression level.
+    * @return The compressed data.
+    */
+   static byte[] compress(final byte[] data, final String encoding, final int level) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+
+      try (OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) {
+         {
+            def.setLevel(level);
+         }
+      } : new DeflaterOutputStream(bytes) {
+         {
+            def.setLevel(level);
+         }
+      }) {
+         out.write(data);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e); // cannot happen with an in-memory stream
+      }
+
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Gets the encoded response shared with the other workers with the same settings. Encodes the response when there is none,
+    * which happens when the worker is configured.
+    *
+    * @return The encoded response.
+    */
+   EncodedResponse getEncodedResponse() {
+      EncodedResponse encoded = encodedResponse;
+
+      if (encoded == null) {
+         final String text = response;
+         final int level = compression ? compressionLevel : -1;
+         try {
+            encoded = encodedResponses.get(level + ":" + text, () -> new EncodedResponse(text, level));
+         } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to encode the response: ", e.getCause());
+         }
+         encodedResponse = encoded;
+      }
+
+      return encoded;
+   }
+
    public int getStatusCode() {
       return statusCode;
    }
@@ -88,6 +324,7 @@ public class NormalWorker implements Worker {
 
    public void setResponse(final String response) {
       this.response = response;
+      encodedResponse = null;
    }
 
    public boolean isMirrorRequest() {
@@ -97,4 +334,95 @@ public class NormalWorker implements Worker {
    public void setMirrorRequest(final boolean mirrorRequest) {
       this.mirrorRequest = mirrorRequest;
    }
+
+   public boolean isCompression() {
+      return compression;
+   }
+
+   public void setCompression(final boolean compression) {
+      this.compression = compression;
+      encodedResponse = null;
+   }
+
+   public boolean isCompressMirror() {
+      return compressMirror;
+   }
+
+   public void setCompressMirror(final boolean compressMirror) {
+      this.compressMirror = compressMirror;
+   }
+
+   public int getCompressionLevel() {
+      return compressionLevel;
+   }
+
+   public void setCompressionLevel(final int compressionLevel) {
+      if (compressionLevel < 0 || compressionLevel > 9) {
+         throw new IllegalArgumentException("Compression level must be between 0 and 9, got " + compressionLevel + ".");
+      }
+      this.compressionLevel = compressionLevel;
+      encodedResponse = null;
+   }
+
+   /**
+    * The response encoded in shared read-only buffers.
+    */
+   static final class EncodedResponse {
+
+      /**
+       * The encoded response.
+       */
+      private final Buffer buffer;
+
+      /**
+       * The compressed response by the content encodings. Empty when the compression is disabled.
+       */
+      private final Map<String, Buffer> compressed;
+
+      /**
+       * Encodes and compresses the response.
+       *
+       * @param response
+       *       The response.
+       * @param level
+       *       The compression level, negative when the response should not be compressed.
+       */
+      private EncodedResponse(final String response, final int level) {
+         final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+         buffer = readOnly(bytes);
+
+         if (level >= 0) {
+            final Map<String, Buffer> buffers = new LinkedHashMap<>();
+            for (final String encoding : ENCODINGS) {
+               buffers.put(encoding, readOnly(compress(bytes, encoding, level)));
+            }
+            compressed = buffers;
+         } else {
+            compressed = Collections.emptyMap();
+         }
+      }
+
+      /**
+       * Copies the data to a read-only direct buffer.
+       *
+       * @param data
+       *       The data.
+       * @return The read-only buffer.
+       */
+      private static Buffer readOnly(final byte[] data) {
+         return Buffer.buffer(Unpooled.directBuffer(data.length).writeBytes(data).asReadOnly());
+      }
+
+      Buffer getBuffer() {
+         return buffer;
+      }
+
+      boolean isCompressed() {
+         return !compressed.isEmpty();
+      }
+
+      Buffer getCompressed(final String encoding) {
+         return compressed.get(encoding);
+      }
+   }
 }
@@ -0,0 +1,377 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Responds with synthetic payloads of the given size. The size is either constant or drawn from a uniform distribution
+ * between minSize and maxSize or from an exponential distribution with the mean of size truncated to minSize and maxSize.
+ * When maxSize is not set, it is twice the size for the uniform distribution and about 14 times the size for the exponential one,
+ * so that only one in a million exponential payloads is truncated, but at most {@link #DEFAULT_MAX_SIZE_CAP} unless the size itself is larger.
+ *
+ * All the payloads are slices of a single read-only direct buffer shared by all the workers. The buffer is allocated when
+ * the workers are configured for the largest payload any of them can produce, so that no data is allocated or copied per request
+ * and the request processing only reads the buffer. A worker whose largest payload does not fit in the maximum direct memory refuses its configuration.
+ * The payload can be sent in chunks of chunkSize bytes with the chunked transfer encoding. The chunks are written on the event loop
+ * only while the response write queue is not full, so that a slow client does not get the whole payload queued in memory.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class PayloadWorker implements AsyncWorker, MapConfigurable {
+
+   /**
+    * Logger.
+    */
+   private static final Logger log = LogManager.getLogger(PayloadWorker.class);
+
+   /**
+    * The largest default maximum payload size in bytes, used when maxSize is not set.
+    */
+   static final int DEFAULT_MAX_SIZE_CAP = 64 * 1024 * 1024;
+
+   /**
+    * The repeated contents of the payloads, lines of printable characters.
+    */
+   private static final byte[] PATTERN = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-\n".getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * The payload shared by all the workers, large enough for all the configured workers.
+    */
+   private static volatile Buffer payload = Buffer.buffer(0);
+
+   /**
+    * The status code to return.
+    */
+   private int statusCode = 200;
+
+   /**
+    * The payload size in bytes, the mean size for the exponential distribution.
+    */
+   private int size = 1024;
+
+   /**
+    * Minimum payload size in bytes.
+    */
+   private int minSize = 0;
+
+   /**
+    * Maximum payload size in bytes, 0 means it is derived from the size.
+    */
+   private int maxSize = 0;
+
+   /**
+    * Distribution of the payload size, constant, uniform or exponential.
+    */
+   private Distribution distribution = Distribution.CONSTANT;
+
+   /**
+    * Whether the payload should be sent with the chunked transfer encoding.
+    */
+   private boolean chunked = false;
+
+   /**
+    * Size of the chunks in bytes.
+    */
+   private int chunkSize = 8192;
+
+   @Override
+   public boolean configure(final Properties configuration) {
+      final int largest = getLargestSize();
+      final long maxDirectMemory = PlatformDependent.maxDirectMemory();
+      if (maxDirectMemory > 0 && largest > maxDirectMemory) {
+         log.error("The largest payload of " + largest + " bytes exceeds the maximum direct memory of " + maxDirectMemory + " bytes, set a lower size or maxSize.");
+         return false;
+      }
+
+      reserve(largest);
+      return true;
+   }
+
+   @Override
+   public void work(final RoutingContext context) throws Exception {
+      workAsync(context);
+   }
+
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      final HttpServerResponse response = context.response();
+      if (response.ended()) { // e.g. the request body was too large
+         return Future.succeededFuture();
+      }
+
+      final int length = sample();
+      Buffer buffer = payload();
+      if (buffer.length() < length) { // the worker was not configured
+         buffer = reserve(getLargestSize());
+      }
+      response.setStatusCode(statusCode);
+
+      if (!chunked) {
+         response.end(buffer.slice(0, length));
+         return Future.succeededFuture();
+      }
+
+      final Future<Void> future = Future.future();
+      final ChunkedTransfer transfer = new ChunkedTransfer(response, buffer, length, future);
+
+      // keep the whole transfer on a single event loop thread
+      if (Context.isOnEventLoopThread()) {
+         transfer.start();
+      } else {
+         context.vertx().runOnContext(v -> transfer.start());
+      }
+
+      return future;
+   }
+
+   @Override
+   public boolean isNonBlocking() {
+      return true;
+   }
+
+   /**
+    * Draws the payload size for a request.
+    *
+    * @return The payload size in bytes.
+    */
+   int sample() {
+      final int upper = Math.max(minSize, getUpperSize());
+
+      // the uniform upper bound is exclusive
+      return (int) Math.min(upper, distribution.sample(size, minSize, upper + 1d));
+   }
+
+   /**
+    * Gets the largest payload size the worker can produce.
+    *
+    * @return The largest payload size in bytes.
+    */
+   private int getLargestSize() {
+      return Math.max(minSize, getUpperSize());
+   }
+
+   /**
+    * Gets the maximum payload size. The constant size is never limited, the default maximum is capped.
+    *
+    * @return The maximum payload size in bytes.
+    */
+   private int getUpperSize() {
+      if (distribution == Distribution.CONSTANT) {
+         return size;
+      }
+
+      return maxSize > 0 ? maxSize : (int) Math.max(size, Math.min(DEFAULT_MAX_SIZE_CAP, distribution.getDefaultMax(size)));
+   }
+
+   /**
+    * Gets the shared payload.
+    *
+    * @return The shared read-only payload.
+    */
+   static Buffer payload() {
+      return payload;
+   }
+
+   /**
+    * Makes sure the shared payload has at least the given length, replaces it by a larger one when needed.
+    * Called when the workers are configured, not when the requests are processed.
+    *
+    * @param length
+    *       The minimum length in bytes.
+    * @return The shared read-only payload.
+    */
+   static synchronized Buffer reserve(final int length) {
+      if (payload.length() < length) {
+         final ByteBuffer bytes = ByteBuffer.allocateDirect(length);
+         bytes.put(PATTERN, 0, Math.min(PATTERN.length, length));
+
+         // the filled part is a whole number of patterns, so it can be copied after itself
+         while (bytes.hasRemaining()) {
+            final ByteBuffer filled = (ByteBuffer) bytes.duplicate().flip();
+            filled.limit(Math.min(filled.limit(), bytes.remaining()));
+            bytes.put(filled);
+         }
+         bytes.flip();
+
+         payload = Buffer.buffer(Unpooled.wrappedBuffer(bytes).asReadOnly());
+      }
+
+      return payload;
+   }
+
+   public int getStatusCode() {
+      return statusCode;
+   }
+
+   public void setStatusCode(final int statusCode) {
+      this.statusCode = statusCode;
+   }
+
+   public int getSize() {
+      return size;
+   }
+
+   public void setSize(final int size) {
+      this.size = size;
+   }
+
+   public int getMinSize() {
+      return minSize;
+   }
+
+   public void setMinSize(final int minSize) {
+      this.minSize = minSize;
+   }
+
+   public int getMaxSize() {
+      return maxSize;
+   }
+
+   public void setMaxSize(final int maxSize) {
+      this.maxSize = maxSize;
+   }
+
+   public String getDistribution() {
+      return distribution.toString();
+   }
+
+   public void setDistribution(final String distribution) {
+      this.distribution = Distribution.parse(distribution);
+   }
+
+   public boolean isChunked() {
+      return chunked;
+   }
+
+   public void setChunked(final boolean chunked) {
+      this.chunked = chunked;
+   }
+
+   public int getChunkSize() {
+      return chunkSize;
+   }
+
+   public void setChunkSize(final int chunkSize) {
+      if (chunkSize <= 0) {
+         throw new IllegalArgumentException("Chunk size must be a positive number of bytes, got " + chunkSize + ".");
+      }
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * A chunked payload transfer. Confined to the event loop thread it was started on.
+    */
+   private final class ChunkedTransfer {
+
+      /**
+       * The response to write.
+       */
+      private final HttpServerResponse response;
+
+      /**
+       * The shared payload.
+       */
+      private final Buffer buffer;
+
+      /**
+       * The payload size in bytes.
+       */
+      private final int length;
+
+      /**
+       * Completed when the transfer is finished.
+       */
+      private final Future<Void> future;
+
+      /**
+       * Number of bytes written so far.
+       */
+      private int written = 0;
+
+      private ChunkedTransfer(final HttpServerResponse response, final Buffer buffer, final int length, final Future<Void> future) {
+         this.response = response;
+         this.buffer = buffer;
+         this.length = length;
+         this.future = future;
+      }
+
+      /**
+       * Sends the response head and starts writing the chunks.
+       */
+      private void start() {
+         response.setChunked(true);
+
+         // called also when the connection is closed while the transfer waits for the client
+         response.endHandler(v -> finish());
+         response.exceptionHandler(t -> finish());
+         response.drainHandler(v -> write());
+         write();
+      }
+
+      /**
+       * Writes the chunks until the response write queue is full, the drain handler continues then.
+       */
+      private void write() {
+         if (future.isComplete()) {
+            return;
+         }
+
+         if (response.closed()) {
+            future.tryComplete();
+            return;
+         }
+
+         while (written < length) {
+            final int end = Math.min(length, written + chunkSize);
+            response.write(buffer.slice(written, end));
+            written = end;
+
+            if (written < length && response.writeQueueFull()) {
+               return;
+            }
+         }
+
+         finish();
+      }
+
+      /**
+       * Ends the response and completes the transfer.
+       */
+      private void finish() {
+         if (!response.closed() && !response.ended()) {
+            response.end();
+         }
+         future.tryComplete();
+      }
+   }
+}
@@ -0,0 +1,119 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket rate limiter.
+ *
+ * The bucket is implemented as the generic cell rate algorithm. The only state is the theoretical arrival time of the next request,
+ * which is updated by a compare-and-set. A request is allowed when it does not come earlier than the burst before its theoretical
+ * arrival time. Rejected requests only read the state, so an overloaded limiter does not suffer from contention.
+ * Limiters can be shared by named groups so that all the workers in the group have a single common limit.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class RateLimiter {
+
+   /**
+    * Limiters shared by the named groups.
+    */
+   private static final GroupRegistry<RateLimiter> groups = new GroupRegistry<>("rate limiter");
+
+   /**
+    * Nanoseconds between two requests at the maximum rate.
+    */
+   private final long interval;
+
+   /**
+    * How much earlier than its theoretical arrival time a request can come, in nanoseconds.
+    */
+   private final long tolerance;
+
+   /**
+    * Theoretical arrival time of the next request in nanoseconds.
+    */
+   private final AtomicLong arrival;
+
+   /**
+    * Creates a new rate limiter.
+    *
+    * @param rate
+    *       Maximum number of requests per second.
+    * @param burst
+    *       Maximum number of requests allowed at once.
+    */
+   public RateLimiter(final int rate, final int burst) {
+      if (rate <= 0 || burst <= 0) {
+         throw new IllegalArgumentException("Rate and burst must be positive.");
+      }
+
+      this.interval = Math.max(1, 1_000_000_000L / rate);
+      this.tolerance = (burst - 1) * interval;
+      this.arrival = new AtomicLong(System.nanoTime());
+   }
+
+   /**
+    * Gets the rate limiter shared by the given group. The limiter is created with the given parameters
+    * when the group does not exist yet or its parameters changed by a reload, see {@link GroupRegistry}.
+    *
+    * @param group
+    *       The group name.
+    * @param rate
+    *       Maximum number of requests per second.
+    * @param burst
+    *       Maximum number of requests allowed at once.
+    * @return The shared rate limiter.
+    */
+   public static RateLimiter forGroup(final String group, final int rate, final int burst) {
+      return groups.get(group, rate + " requests/s and burst " + burst, () -> new RateLimiter(rate, burst));
+   }
+
+   /**
+    * Tries to take a token from the bucket.
+    *
+    * @return True iff the request is allowed.
+    */
+   public boolean tryAcquire() {
+      return tryAcquire(System.nanoTime());
+   }
+
+   /**
+    * Tries to take a token from the bucket at the given time.
+    *
+    * @param now
+    *       The current time in nanoseconds.
+    * @return True iff the request is allowed.
+    */
+   boolean tryAcquire(final long now) {
+      while (true) {
+         final long current = arrival.get();
+
+         if (current - now > tolerance) {
+            return false;
+         }
+
+         if (arrival.compareAndSet(current, Math.max(current, now) + interval)) {
+            return true;
+         }
+      }
+   }
+}
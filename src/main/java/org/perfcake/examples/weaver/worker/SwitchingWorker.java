@@ -19,29 +19,36 @@
  */
 package org.perfcake.examples.weaver.worker;
 
-import org.perfcake.util.ObjectFactory;
-
-import io.vertx.ext.web.RoutingContext;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A worker that can periodically switch between other workers.
- * There is only one configuration parameter. Other parameters are in the formof workerXX_&lt;worker property&gt;.
- * For each of the underlying workers, there must be one mandatory property configured - workerXX_class - that specifies
- * the worker class name. By default the package org.perfcake.examples.weaver.worker is assumed.
+ * The workers take turns in phases measured by wall-clock time. By default, each phase takes switchPeriod milliseconds.
+ * The phases property can set the duration of each phase separately as a semicolon separated list of milliseconds, e.g.
+ * phases:60000;10000 for a worker that is healthy for a minute and degraded for ten seconds. The phases that are not listed
+ * take switchPeriod milliseconds. The ramps property can set the duration of a gradual transition after each phase in the same way,
+ * e.g. ramps:0;30000 switches to the degraded worker at once and then returns to the healthy one during thirty seconds. During a ramp,
+ * the share of the requests passed to the next worker grows linearly. The ramps that are not listed take no time.
+ * The underlying workers are configured as described in {@link CompositeWorker}.
+ *
+ * All the workers created from a single configuration line follow a single schedule, so that the emulated service as a whole
+ * switches at once. Workers with the same group follow a single schedule too, even from different lines.
+ * The switches are made by a scheduler thread shared by all the schedules, requests just read the published current state.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-public class SwitchingWorker implements Worker, MapConfigurable {
+public class SwitchingWorker extends CompositeWorker {
 
    /**
     * Logger.
@@ -49,80 +56,147 @@ public class SwitchingWorker implements Worker, MapConfigurable {
    private static Logger log = LogManager.getLogger(SwitchingWorker.class);
 
    /**
-    * List of underlying workers that are switched periodically.
+    * Switches the workers of all the schedules.
     */
-   private List<Worker> workers = new ArrayList<>();
+   private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("switching-worker-scheduler").build());
 
    /**
-    * Period counter.
+    * Schedules shared by the configuration lines and the named groups.
     */
-   private AtomicInteger counter = new AtomicInteger(0);
+   private static final GroupRegistry<Schedule> schedules = new GroupRegistry<>("switching schedule");
 
    /**
-    * How often switch the worker.
+    * How often switch the worker in milliseconds.
     */
    private int switchPeriod = 1000;
 
+   /**
+    * Durations of the individual phases in milliseconds separated by semicolons.
+    */
+   private String phases = null;
+
+   /**
+    * Durations of the ramps after the individual phases in milliseconds separated by semicolons.
+    */
+   private String ramps = null;
+
+   /**
+    * Name of the group sharing the schedule, null when the schedule is shared by the configuration line.
+    */
+   private String group = null;
+
+   /**
+    * Identity of the configuration line that created the worker, null when it was not created by Weaver.
+    */
+   private String line = null;
+
+   /**
+    * The underlying workers indexed by their phases.
+    */
+   private Worker[] phaseWorkers;
+
+   /**
+    * The schedule followed by the worker, null until the worker is configured.
+    */
+   private Schedule schedule = null;
+
+   /**
+    * Whether the worker was taken out of service and stopped following the schedule.
+    */
+   private boolean closed = false;
+
    @Override
-   public void work(final RoutingContext context) throws Exception {
-      if (workers.size() > 0) {
-         final Worker w = workers.get(counter.getAndIncrement() % switchPeriod % workers.size());
-         w.work(context);
+   public boolean configure(final Properties configuration) {
+      line = configuration.getProperty(LINE);
+      return super.configure(configuration);
+   }
+
+   @Override
+   protected Worker select() {
+      if (schedule == null) {
+         return null;
       }
+
+      final Schedule.State state = schedule.state;
+      final int phase = state.ramp > 0 && ThreadLocalRandom.current().nextDouble() < state.ramp ? state.next : state.phase;
+
+      return phaseWorkers[phase];
    }
 
    @Override
-   public boolean configure(final Properties configuration) {
-      final Map<Integer, Properties> configurations = new HashMap<>();
-      final LongAdder errorCount = new LongAdder();
+   protected boolean configured() {
+      final long[] durations = parse(phases, switchPeriod, "phase");
+      final long[] rampDurations = parse(ramps, 0, "ramp after phase");
+      if (durations == null || rampDurations == null) {
+         return false;
+      }
+
+      phaseWorkers = getWorkers().toArray(new Worker[0]);
+
+      final String shared = group != null ? group : line;
+      final Schedule newSchedule = shared == null ? new Schedule(durations, rampDurations, System.nanoTime())
+            : schedules.get(shared, "phases of " + Arrays.toString(durations) + " ms and ramps of " + Arrays.toString(rampDurations) + " ms",
+            () -> new Schedule(durations, rampDurations, System.nanoTime()));
+
+      if (newSchedule.getPhases() != phaseWorkers.length) {
+         log.error("The schedule of group " + shared + " has " + newSchedule.getPhases() + " phases, while there are " + phaseWorkers.length + " workers.");
+         return false;
+      }
 
-      // parse configurations
-      configuration.forEach((k, v) -> {
-         final String key = k.toString();
-         final String val = v.toString();
+      newSchedule.acquire();
+      schedule = newSchedule;
 
-         if (key.startsWith("worker")) {
-            int workerNumber = Integer.parseInt(key.substring(6, key.indexOf("_")));
-            configurations.computeIfAbsent(workerNumber, n -> new Properties());
+      return true;
+   }
 
-            configurations.get(workerNumber).put(key.substring(key.indexOf("_") + 1), val);
+   @Override
+   public void close() {
+      synchronized (this) {
+         // the requests already accepted still read the schedule
+         if (schedule != null && !closed) {
+            schedule.release();
          }
-      });
+         closed = true;
+      }
 
-      // create workers
-      configurations.forEach((n, props) -> {
-         String clazz = props.getProperty("class");
-         clazz = clazz.contains(".") ? clazz : "org.perfcake.examples.weaver.worker." + clazz;
+      super.close();
+   }
+
+   /**
+    * Parses the durations of all the phases or ramps.
+    *
+    * @param configured
+    *       The durations in milliseconds separated by semicolons, may be null.
+    * @param defaultDuration
+    *       The duration of the phases or ramps that are not listed.
+    * @param what
+    *       What is parsed, used in the log messages.
+    * @return The durations in milliseconds, or null when they were not configured correctly.
+    */
+   private long[] parse(final String configured, final long defaultDuration, final String what) {
+      final long[] durations = new long[getWorkers().size()];
+      final String[] values = configured == null ? new String[0] : StringUtils.stripAll(StringUtils.split(configured, ';'));
 
+      if (values.length > durations.length) {
+         log.error("There are " + values.length + " durations of " + what + "s configured for only " + durations.length + " workers.");
+         return null;
+      }
+
+      for (int i = 0; i < durations.length; i++) {
          try {
-            final Properties mapProperties = new Properties();
-            props.forEach((k, v) -> {
-               if (((String) k).matches("worker[0-9][0-9]*_.*")) {
-                  mapProperties.setProperty((String) k, (String) v);
-               }
-            });
-            mapProperties.forEach((k, v) -> props.remove(k));
-
-            final Worker worker = (Worker) ObjectFactory.summonInstance(clazz, props);
-
-            boolean add = true;
-            if (worker instanceof MapConfigurable) {
-               add = ((MapConfigurable) worker).configure(mapProperties);
-            }
+            durations[i] = i < values.length ? Long.parseLong(values[i]) : defaultDuration;
+         } catch (NumberFormatException e) {
+            durations[i] = -1;
+         }
 
-            if (add) {
-               workers.add(worker);
-            } else {
-               log.error("Unable to configure underlying worker no. " + n);
-               errorCount.increment();
-            }
-         } catch (ReflectiveOperationException e) {
-            log.error("Unable to configure underlying worker no. " + n + ": ", e);
-            errorCount.increment();
+         if (durations[i] < 0 || (durations[i] == 0 && defaultDuration > 0)) {
+            log.error("The duration of " + what + " no. " + (i + 1) + " must be a " + (defaultDuration > 0 ? "positive" : "non-negative") + " number of milliseconds.");
+            return null;
          }
-      });
+      }
 
-      return errorCount.intValue() == 0 && workers.size() > 0;
+      return durations;
    }
 
    public int getSwitchPeriod() {
@@ -133,7 +207,225 @@ public class SwitchingWorker implements Worker, MapConfigurable {
       this.switchPeriod = switchPeriod;
    }
 
-   List<Worker> getWorkers() {
-      return workers;
+   public String getPhases() {
+      return phases;
+   }
+
+   public void setPhases(final String phases) {
+      this.phases = phases;
+   }
+
+   public String getRamps() {
+      return ramps;
+   }
+
+   public void setRamps(final String ramps) {
+      this.ramps = ramps;
+   }
+
+   public String getGroup() {
+      return group;
+   }
+
+   public void setGroup(final String group) {
+      this.group = group;
+   }
+
+   Schedule getSchedule() {
+      return schedule;
+   }
+
+   /**
+    * Timeline of the phases and ramps shared by the switching workers. Each phase keeps its worker for its duration,
+    * then the optional ramp passes a linearly growing share of the requests to the worker of the next phase, which then takes over.
+    * The current state is published by the scheduler at the ends of the phases and every {@link #RAMP_TICK} during a ramp.
+    * The schedule runs while any worker follows it.
+    */
+   static final class Schedule {
+
+      /**
+       * How often the share of the requests passed to the next worker is updated during a ramp in nanoseconds.
+       */
+      static final long RAMP_TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+      /**
+       * Durations of the phases in nanoseconds.
+       */
+      private final long[] durations;
+
+      /**
+       * Durations of the ramps after the phases in nanoseconds.
+       */
+      private final long[] ramps;
+
+      /**
+       * Duration of all the phases and ramps in nanoseconds.
+       */
+      private final long cycle;
+
+      /**
+       * The published state read by the requests.
+       */
+      volatile State state = new State(0, 0, 0);
+
+      /**
+       * Index of the current phase.
+       */
+      private int phase = 0;
+
+      /**
+       * Whether the ramp after the current phase is in progress.
+       */
+      private boolean ramping = false;
+
+      /**
+       * When the current phase or ramp ends in nanoseconds.
+       */
+      private long segmentEnd;
+
+      /**
+       * Number of workers following the schedule.
+       */
+      private int users = 0;
+
+      /**
+       * The scheduled next update of the state, null when the schedule does not run.
+       */
+      private ScheduledFuture<?> nextTick = null;
+
+      /**
+       * Creates a new schedule starting with the first phase.
+       *
+       * @param durations
+       *       Durations of the phases in milliseconds.
+       * @param ramps
+       *       Durations of the ramps after the phases in milliseconds.
+       * @param start
+       *       When the first phase starts in nanoseconds.
+       */
+      Schedule(final long[] durations, final long[] ramps, final long start) {
+         this.durations = Arrays.stream(durations).map(TimeUnit.MILLISECONDS::toNanos).toArray();
+         this.ramps = Arrays.stream(ramps).map(TimeUnit.MILLISECONDS::toNanos).toArray();
+         this.cycle = Arrays.stream(this.durations).sum() + Arrays.stream(this.ramps).sum();
+         this.segmentEnd = start + this.durations[0];
+      }
+
+      /**
+       * Registers a worker following the schedule, starts the schedule for the first one.
+       */
+      synchronized void acquire() {
+         if (users++ == 0 && durations.length > 1) {
+            schedule(advance(System.nanoTime()));
+         }
+      }
+
+      /**
+       * Unregisters a worker following the schedule, stops the schedule after the last one.
+       */
+      synchronized void release() {
+         if (--users == 0 && nextTick != null) {
+            nextTick.cancel(false);
+            nextTick = null;
+         }
+      }
+
+      /**
+       * Publishes the current state and plans the next update. Called by the scheduler.
+       */
+      private synchronized void tick() {
+         if (users > 0) {
+            schedule(advance(System.nanoTime()));
+         }
+      }
+
+      /**
+       * Schedules the next update.
+       *
+       * @param when
+       *       When the update should happen in nanoseconds.
+       */
+      private void schedule(final long when) {
+         nextTick = scheduler.schedule(this::tick, Math.max(0, when - System.nanoTime()), TimeUnit.NANOSECONDS);
+      }
+
+      /**
+       * Moves the schedule to the given time and publishes its state.
+       *
+       * @param now
+       *       The current time in nanoseconds.
+       * @return When the state should be updated next in nanoseconds.
+       */
+      synchronized long advance(final long now) {
+         if (now - segmentEnd > cycle) { // skip the whole cycles missed
+            segmentEnd += (now - segmentEnd) / cycle * cycle;
+         }
+
+         // plan from the intended end of the previous segment so that the delays do not accumulate
+         while (now - segmentEnd >= 0) {
+            if (!ramping && ramps[phase] > 0) {
+               ramping = true;
+               segmentEnd += ramps[phase];
+            } else {
+               ramping = false;
+               phase = next(phase);
+               segmentEnd += durations[phase];
+            }
+         }
+
+         if (ramping) {
+            state = new State(phase, next(phase), 1 - (double) (segmentEnd - now) / ramps[phase]);
+            return Math.min(segmentEnd, now + RAMP_TICK);
+         }
+
+         state = new State(phase, phase, 0);
+         return segmentEnd;
+      }
+
+      /**
+       * Gets the phase following the given one.
+       *
+       * @param current
+       *       The index of a phase.
+       * @return The index of the next phase.
+       */
+      private int next(final int current) {
+         return (current + 1) % durations.length;
+      }
+
+      /**
+       * Gets the number of phases.
+       *
+       * @return The number of phases.
+       */
+      int getPhases() {
+         return durations.length;
+      }
+
+      /**
+       * Immutable state of the schedule published to the requests.
+       */
+      static final class State {
+
+         /**
+          * Index of the current phase.
+          */
+         final int phase;
+
+         /**
+          * Index of the phase the ramp leads to, the current phase when there is no ramp.
+          */
+         final int next;
+
+         /**
+          * Share of the requests passed to the next phase, 0 when there is no ramp.
+          */
+         final double ramp;
+
+         private State(final int phase, final int next, final double ramp) {
+            this.phase = phase;
+            this.next = next;
+            this.ramp = ramp;
+         }
+      }
    }
 }
@@ -0,0 +1,282 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Streams a response of the given size at the given rate (bytes per second) to emulate slow links and large downloads.
+ * The response is written in chunks on a Vert.x timer, no thread is blocked during the transfer. When the client does not keep up
+ * with the rate, the writing pauses until the response write queue drains, and then it continues at the original rate without
+ * catching up. The chunks are slices of the read-only payload shared with {@link PayloadWorker}.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class ThrottledWorker implements AsyncWorker {
+
+   /**
+    * Maximum size of a slice of the shared payload, larger chunks are written in more slices.
+    */
+   private static final int PAYLOAD_SIZE = 64 * 1024;
+
+   /**
+    * The shared payload.
+    */
+   private static final Buffer PAYLOAD = PayloadWorker.reserve(PAYLOAD_SIZE);
+
+   /**
+    * The response status code.
+    */
+   private int statusCode = 200;
+
+   /**
+    * The response size in bytes.
+    */
+   private long size = 1024 * 1024;
+
+   /**
+    * The transfer rate in bytes per second, 0 = unlimited.
+    */
+   private long rate = 64 * 1024;
+
+   /**
+    * How often the response is written in milliseconds.
+    */
+   private long tick = 50;
+
+   @Override
+   public void work(final RoutingContext context) throws Exception {
+      workAsync(context);
+   }
+
+   @Override
+   public Future<Void> workAsync(final RoutingContext context) throws Exception {
+      final Future<Void> future = Future.future();
+      final Transfer transfer = new Transfer(context.vertx(), context.response(), future);
+
+      // keep the whole transfer on a single event loop thread
+      if (Context.isOnEventLoopThread()) {
+         transfer.start();
+      } else {
+         context.vertx().runOnContext(v -> transfer.start());
+      }
+
+      return future;
+   }
+
+   @Override
+   public boolean isNonBlocking() {
+      return true;
+   }
+
+   /**
+    * Computes how many bytes should have been written since the rate measurement started.
+    *
+    * @param writtenBefore
+    *       Number of bytes written before the rate measurement started.
+    * @param elapsed
+    *       Time elapsed since the rate measurement started in nanoseconds.
+    * @return The number of bytes that should have been written, never more than the response size.
+    */
+   long due(final long writtenBefore, final long elapsed) {
+      return rate <= 0 ? size : Math.min(size, writtenBefore + (long) (rate * (elapsed / 1_000_000_000d)));
+   }
+
+   /**
+    * Computes the size of the next chunk to write.
+    *
+    * @param remaining
+    *       Number of bytes that should be written now.
+    * @return The chunk size, never larger than the shared payload.
+    */
+   static int chunk(final long remaining) {
+      return (int) Math.min(remaining, PAYLOAD_SIZE);
+   }
+
+   public int getStatusCode() {
+      return statusCode;
+   }
+
+   public void setStatusCode(final int statusCode) {
+      this.statusCode = statusCode;
+   }
+
+   public long getSize() {
+      return size;
+   }
+
+   public void setSize(final long size) {
+      this.size = size;
+   }
+
+   public long getRate() {
+      return rate;
+   }
+
+   public void setRate(final long rate) {
+      this.rate = rate;
+   }
+
+   public long getTick() {
+      return tick;
+   }
+
+   public void setTick(final long tick) {
+      this.tick = tick;
+   }
+
+   /**
+    * A single response transfer. Confined to the thread of its timer.
+    */
+   private final class Transfer {
+
+      /**
+       * Vert.x instance.
+       */
+      private final Vertx vertx;
+
+      /**
+       * The response to write.
+       */
+      private final HttpServerResponse response;
+
+      /**
+       * Completed when the transfer is finished.
+       */
+      private final Future<Void> future;
+
+      /**
+       * Number of bytes written so far.
+       */
+      private long written = 0;
+
+      /**
+       * Time since which the rate is measured in nanoseconds.
+       */
+      private long since;
+
+      /**
+       * Number of bytes written before the rate measurement started.
+       */
+      private long writtenBefore = 0;
+
+      /**
+       * The timer writing the chunks.
+       */
+      private long timerId = -1;
+
+      private Transfer(final Vertx vertx, final HttpServerResponse response, final Future<Void> future) {
+         this.vertx = vertx;
+         this.response = response;
+         this.future = future;
+      }
+
+      /**
+       * Sends the response head and starts writing the body.
+       */
+      private void start() {
+         if (response.ended()) { // e.g. the request body was too large
+            future.complete();
+            return;
+         }
+
+         response.setStatusCode(statusCode).putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(size));
+
+         if (size <= 0) {
+            finish();
+         } else {
+            // called also when the connection is closed while the transfer waits for the client
+            response.endHandler(v -> finish());
+            response.exceptionHandler(t -> finish());
+            response.drainHandler(v -> resume());
+            resume();
+         }
+      }
+
+      /**
+       * Starts measuring the rate from now and starts the timer.
+       */
+      private void resume() {
+         if (timerId < 0 && !future.isComplete()) {
+            since = System.nanoTime();
+            writtenBefore = written;
+            timerId = vertx.setPeriodic(tick, id -> write());
+            write();
+         }
+      }
+
+      /**
+       * Writes what should have been written by now.
+       */
+      private void write() {
+         if (response.closed()) {
+            stop();
+            future.tryComplete();
+            return;
+         }
+
+         final long due = due(writtenBefore, System.nanoTime() - since);
+         while (written < due) {
+            final int chunk = chunk(due - written);
+            written += chunk;
+
+            if (written == size) {
+               response.write(PAYLOAD.slice(0, chunk));
+               finish();
+               return;
+            }
+
+            response.write(PAYLOAD.slice(0, chunk));
+            if (response.writeQueueFull()) {
+               // the drain handler resumes the transfer without catching up
+               stop();
+               return;
+            }
+         }
+      }
+
+      /**
+       * Stops the timer.
+       */
+      private void stop() {
+         if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+         }
+      }
+
+      /**
+       * Ends the response and completes the transfer.
+       */
+      private void finish() {
+         stop();
+         if (!response.closed() && !response.ended()) {
+            response.end();
+         }
+         future.tryComplete();
+      }
+   }
+}
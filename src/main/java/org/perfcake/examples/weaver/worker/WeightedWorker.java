@@ -0,0 +1,144 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A worker that passes each request to one of its underlying workers chosen randomly according to their weights.
+ * The weight of each underlying worker is set by workerXX_weight, it defaults to 1. For example,
+ * worker1_class:NormalWorker,worker1_weight:97,worker2_class:DelayWorker,worker2_delay:3000,worker2_weight:3
+ * delays 3 % of the requests by 3 seconds. The underlying workers are configured as described in {@link CompositeWorker}.
+ *
+ * The worker is chosen in constant time by the alias method using a thread local random generator, so that there is
+ * no shared mutable state.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WeightedWorker extends CompositeWorker {
+
+   /**
+    * Logger.
+    */
+   private static Logger log = LogManager.getLogger(WeightedWorker.class);
+
+   /**
+    * The property of the underlying workers with their weights.
+    */
+   private static final String WEIGHT = "weight";
+
+   /**
+    * Weights of the underlying workers in their order.
+    */
+   private final List<Double> weights = new ArrayList<>();
+
+   /**
+    * The underlying workers.
+    */
+   private Worker[] delegates;
+
+   /**
+    * Probability of choosing the worker in the given column rather than its alias.
+    */
+   private double[] probabilities;
+
+   /**
+    * The alternative worker of each column.
+    */
+   private int[] aliases;
+
+   @Override
+   protected Worker select() {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final int column = random.nextInt(delegates.length);
+
+      return delegates[random.nextDouble() < probabilities[column] ? column : aliases[column]];
+   }
+
+   @Override
+   protected boolean configureWorker(final Properties properties) {
+      final String weight = (String) properties.remove(WEIGHT);
+
+      try {
+         final double value = weight == null ? 1 : Double.parseDouble(weight);
+         if (value >= 0 && !Double.isInfinite(value)) {
+            weights.add(value);
+            return true;
+         }
+      } catch (NumberFormatException e) {
+         // reported below
+      }
+
+      log.error("Weight must be a non-negative number, got " + weight + ".");
+      return false;
+   }
+
+   @Override
+   protected boolean configured() {
+      final int n = getWorkers().size();
+      final double total = weights.stream().mapToDouble(Double::doubleValue).sum();
+
+      if (total <= 0) {
+         log.error("At least one worker must have a positive weight.");
+         return false;
+      }
+
+      delegates = getWorkers().toArray(new Worker[n]);
+      probabilities = new double[n];
+      aliases = new int[n];
+
+      // Vose's alias method, each column is filled up to 1 by the worker itself and its alias
+      final double[] scaled = new double[n];
+      final Deque<Integer> small = new ArrayDeque<>();
+      final Deque<Integer> large = new ArrayDeque<>();
+      for (int i = 0; i < n; i++) {
+         scaled[i] = weights.get(i) * n / total;
+         (scaled[i] < 1 ? small : large).push(i);
+      }
+
+      while (!small.isEmpty() && !large.isEmpty()) {
+         final int less = small.pop();
+         final int more = large.pop();
+
+         probabilities[less] = scaled[less];
+         aliases[less] = more;
+         scaled[more] = scaled[more] + scaled[less] - 1;
+         (scaled[more] < 1 ? small : large).push(more);
+      }
+
+      // what is left is 1 up to rounding errors
+      while (!large.isEmpty()) {
+         probabilities[large.pop()] = 1;
+      }
+      while (!small.isEmpty()) {
+         probabilities[small.pop()] = 1;
+      }
+
+      return true;
+   }
+}
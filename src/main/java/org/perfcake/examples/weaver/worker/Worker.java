@@ -23,6 +23,9 @@ import io.vertx.ext.web.RoutingContext;
 
 /**
  * Worker that processes incoming request.
+ * The work method of a worker instance is never called by more requests at the same time, so the implementations need not be thread-safe.
+ * An {@link AsyncWorker} is handed out again as soon as its work method returns, so its asynchronous processing of earlier requests
+ * (e.g. pending timers) overlaps with the next ones. The state used by the asynchronous processing must be kept per request or be thread-safe.
  */
 public interface Worker {
 
@@ -35,4 +38,21 @@ public interface Worker {
     *       When there was any error processing the request.
     */
    void work(final RoutingContext context) throws Exception;
+
+   /**
+    * Tells whether the worker never blocks the calling thread. Such workers can be run directly on the Vert.x event loop
+    * instead of being handed over to the thread pool. Asynchronous workers are considered with their asynchronous processing.
+    *
+    * @return True iff the worker never blocks the calling thread.
+    */
+   default boolean isNonBlocking() {
+      return false;
+   }
+
+   /**
+    * Releases the resources held by the worker when it is taken out of service (e.g. when the configuration is reloaded).
+    * The requests already being processed by the worker must still be completed.
+    */
+   default void close() {
+   }
 }
\ No newline at end of file
@@ -0,0 +1,335 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of workers shared by the threads processing the requests.
+ *
+ * Each thread iterates over all the workers in the configured order using its own thread-confined cursor.
+ * The cursors of the threads start at offsets spread evenly over the workers, so that the threads mostly use different
+ * workers at the same time. A worker is claimed by a compare-and-set of its own flag for the duration of its work method
+ * and when another thread holds it, the next free worker is stolen instead. A checkout is thus a thread local lookup and
+ * a single uncontended compare-and-set in the common case. Every thread alone gets the workers in the configured proportions
+ * unless it has to steal, regardless of how the requests are spread among the threads. A checked out worker must be released
+ * by {@link #release(Worker)} once its work method returns. An {@link AsyncWorker} is thus released when its processing was only started,
+ * and it can be checked out for another request while the earlier ones are still pending.
+ * When all the workers are in use, {@link #checkout()} parks the thread until a worker is released.
+ *
+ * Each request processed by the pool first {@link #enter() enters} it and {@link #exit() exits} it once its work method returns.
+ * When the pool is replaced, it is {@link #retire(Runnable) retired}. No more requests can enter it then, and the workers
+ * taken out of service are closed once the requests that entered it before, e.g. those waiting in an executor queue, are processed.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WorkerPool {
+
+   /**
+    * All the workers in the pool.
+    */
+   private final Worker[] workers;
+
+   /**
+    * Among how many threads the starting offsets are spread.
+    */
+   private final int stripes;
+
+   /**
+    * Whether all the workers in the pool are non-blocking.
+    */
+   private final boolean nonBlocking;
+
+   /**
+    * Flags of the workers, 1 when the worker is checked out.
+    */
+   private final AtomicIntegerArray busy;
+
+   /**
+    * The state of a retired pool.
+    */
+   private static final int RETIRED = Integer.MIN_VALUE;
+
+   /**
+    * Number of the requests that entered the pool and did not exit yet, with the sign bit set once the pool is retired.
+    */
+   private final AtomicInteger entered = new AtomicInteger(0);
+
+   /**
+    * Run once the retired pool has no requests, null until the pool is retired.
+    */
+   private volatile Runnable onDrained = null;
+
+   /**
+    * Guards the waiting for a released worker.
+   private final Lock lock = new ReentrantLock();
+
+   /**
+    * Signalled when a worker is released while some threads wait.
+    */
+   private final Condition released = lock.newCondition();
+
+   /**
+    * Number of threads waiting for a released worker.
+    */
+   private final AtomicInteger waiting = new AtomicInteger(0);
+
+   /**
+    * Number of threads that have been assigned a cursor.
+   private final AtomicInteger threadCount = new AtomicInteger(0);
+
+   /**
+    * The cursor of the current thread.
+    */
+   private final ThreadLocal<Cursor> cursor = ThreadLocal.withInitial(this::newCursor);
+
+   /**
+    * Creates a new pool.
+    *
+    * @param workers
+    *       The workers in the pool, there must be at least one.
+    * @param stripes
+    *       Among how many threads the starting offsets should be spread, typically the number of threads. It is limited by the number of workers.
+    */
+   public WorkerPool(final List<Worker> workers, final int stripes) {
+      if (workers.isEmpty()) {
+         throw new IllegalArgumentException("There must be at least one worker in the pool.");
+      }
+
+      this.workers = workers.toArray(new Worker[workers.size()]);
+      this.busy = new AtomicIntegerArray(workers.size());
+      this.stripes = Math.max(1, Math.min(stripes, workers.size()));
+      this.nonBlocking = workers.stream().allMatch(Worker::isNonBlocking);
+   }
+
+   /**
+    * Checks out the next free worker to process a request in the current thread. Waits for a worker to be released when all of them are in use,
+    * which can only happen when there are more threads than workers for a moment, e.g. when an event loop processes requests too,
+    * or when the executor is shrinking after the workers were reduced. Never returns null.
+    *
+    * @return The next free worker.
+    */
+   public Worker checkout() {
+      final Cursor c = cursor.get();
+      Worker w = c.next();
+      if (w != null) {
+         return w;
+      }
+
+      // announce the waiting before checking again, so that a release either frees a worker seen here or signals
+      waiting.incrementAndGet();
+      lock.lock();
+      try {
+         while ((w = c.next()) == null) {
+            released.awaitUninterruptibly();
+         }
+      } finally {
+         lock.unlock();
+         waiting.decrementAndGet();
+      }
+
+      return w;
+   }
+
+   /**
+    * Checks out the next free worker to process a request in the current thread without waiting.
+    *
+    * @return The next free worker, or null when all the workers are in use.
+    */
+   public Worker tryCheckout() {
+      return cursor.get().next();
+   }
+
+   /**
+    * Returns a worker checked out by the current thread to the pool.
+    *
+    * @param worker
+    *       The worker to release.
+    */
+   public void release(final Worker worker) {
+      final Cursor c = cursor.get();
+      int slot = c.claimed;
+
+      if (slot < 0 || workers[slot] != worker) {
+         slot = -1;
+         for (int i = 0; i < workers.length; i++) {
+            if (workers[i] == worker && busy.get(i) == 1) {
+               slot = i;
+               break;
+            }
+         }
+         if (slot < 0) {
+            throw new IllegalArgumentException("The worker was not checked out from this pool.");
+         }
+      }
+
+      c.claimed = -1;
+      busy.set(slot, 0);
+
+      if (waiting.get() > 0) {
+         lock.lock();
+         try {
+            released.signal();
+         } finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Gets all the workers in the pool.
+    *
+    * @return Unmodifiable list of the workers.
+    */
+   public List<Worker> getWorkers() {
+      return Collections.unmodifiableList(Arrays.asList(workers));
+   }
+
+   /**
+    * Gets among how many threads the starting offsets are spread.
+    *
+    * @return The number of stripes.
+    */
+   public int getStripes() {
+      return stripes;
+   }
+
+   /**
+    * Tells whether all the workers in the pool are non-blocking and can be run directly on the event loop.
+    *
+    * @return True iff all the workers in the pool are non-blocking.
+    */
+   public boolean isNonBlocking() {
+      return nonBlocking;
+   }
+
+   /**
+    * Registers a request to be processed by the pool.
+    *
+    * @return True iff the request can be processed by the pool, false when the pool was retired and the request must be processed by the new one.
+    */
+   public boolean enter() {
+      int state;
+      do {
+         state = entered.get();
+         if (state < 0) {
+            return false;
+         }
+      } while (!entered.compareAndSet(state, state + 1));
+
+      return true;
+   }
+
+   /**
+    * Unregisters a request that entered the pool once it was processed.
+    */
+   public void exit() {
+      if (entered.decrementAndGet() == RETIRED) {
+         onDrained.run();
+      }
+   }
+
+   /**
+    * Stops the pool from accepting new requests and runs the given action once the requests that entered it are processed.
+    * The action is run right away when there are no such requests, otherwise by the thread processing the last one.
+    * A retired pool cannot be retired again.
+    *
+    * @param action
+    *       The action to run, typically closing the workers taken out of service.
+    */
+   public synchronized void retire(final Runnable action) {
+      if (entered.get() < 0) {
+         return;
+      }
+      onDrained = action; // published before the pool is marked as retired
+
+      int state;
+      do {
+         state = entered.get();
+         if (state < 0) {
+            return;
+         }
+      } while (!entered.compareAndSet(state, state | RETIRED));
+
+      if (state == 0) {
+         action.run();
+      }
+   }
+
+   /**
+    * Creates a cursor for a new thread.
+    *
+    * @return A new cursor starting at the offset of the next stripe.
+    */
+   private Cursor newCursor() {
+      final int stripe = (threadCount.getAndIncrement() & Integer.MAX_VALUE) % stripes;
+
+      return new Cursor((int) ((long) stripe * workers.length / stripes));
+   }
+
+   /**
+    * Thread-confined position in the workers.
+    */
+   private final class Cursor {
+
+      /**
+       * Index of the next worker.
+       */
+      private int position;
+
+      /**
+       * Index of the worker checked out last by the thread, -1 when it was released.
+       */
+      private int claimed = -1;
+
+      private Cursor(final int position) {
+         this.position = position;
+      }
+
+      /**
+       * Claims the first free worker from the current position.
+       *
+       * @return The claimed worker, or null when all the workers are in use.
+       */
+      private Worker next() {
+         int slot = position;
+
+         for (int i = 0; i < workers.length; i++) {
+            final int current = slot;
+            slot = slot + 1 == workers.length ? 0 : slot + 1;
+
+            if (busy.get(current) == 0 && busy.compareAndSet(current, 0, 1)) {
+               position = slot;
+               claimed = current;
+               return workers[current];
+            }
+         }
+
+         return null;
+      }
+   }
+}
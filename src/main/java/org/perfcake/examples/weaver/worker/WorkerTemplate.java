@@ -0,0 +1,302 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A worker class with its properties compiled once so that any number of workers can be created cheaply.
+ *
+ * The class is loaded, its setters are looked up and the property values are converted to the setter types only when
+ * the template is compiled. Creating a worker then just calls the constructor and the setters with the prepared values.
+ * The setters of each class are looked up only once for all the templates.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class WorkerTemplate {
+
+   /**
+    * My logger.
+    */
+   private static final Logger log = LogManager.getLogger(WorkerTemplate.class);
+
+   /**
+    * The package of the workers specified without a package.
+    */
+   private static final String DEFAULT_PACKAGE = "org.perfcake.examples.weaver.worker.";
+
+   /**
+    * Setters of the worker classes by their property names.
+    */
+   private static final ConcurrentMap<Class<?>, Map<String, Method>> setters = new ConcurrentHashMap<>();
+
+   /**
+    * Maximum number of shared templates kept, the least recently used ones are dropped above it.
+    */
+   private static final int MAX_TEMPLATES = 1024;
+
+   /**
+    * Templates shared by the equal definitions. Bounded, because the reloads and the administration endpoints can bring new definitions any time.
+    */
+   private static final Cache<String, WorkerTemplate> templates = CacheBuilder.newBuilder().maximumSize(MAX_TEMPLATES).build();
+
+   /**
+    * Creates the workers.
+    */
+   private final Constructor<? extends Worker> constructor;
+
+   /**
+    * The setters to call on each new worker.
+    */
+   private final Method[] methods;
+
+   /**
+    * The values to pass to the setters.
+    */
+   private final Object[] values;
+
+   private WorkerTemplate(final Constructor<? extends Worker> constructor, final Method[] methods, final Object[] values) {
+      this.constructor = constructor;
+      this.methods = methods;
+      this.values = values;
+   }
+
+   /**
+    * Compiles a template of the worker class with the given properties.
+    *
+    * @param className
+    *       The worker class name, the package defaults to org.perfcake.examples.weaver.worker.
+    * @param properties
+    *       The worker properties.
+    * @return The compiled template.
+    * @throws ReflectiveOperationException
+    *       When the class is not a worker that can be instantiated.
+    * @throws IllegalArgumentException
+    *       When a property value cannot be converted to the type of its setter.
+    */
+   public static WorkerTemplate compile(final String className, final Properties properties) throws ReflectiveOperationException {
+      final Class<?> clazz = Class.forName(className.contains(".") ? className : DEFAULT_PACKAGE + className);
+      if (!Worker.class.isAssignableFrom(clazz)) {
+         throw new ClassCastException("Class " + clazz.getName() + " is not a worker.");
+      }
+
+      final Constructor<? extends Worker> constructor = clazz.asSubclass(Worker.class).getConstructor();
+      final Map<String, Method> classSetters = setters(clazz);
+      final List<Method> methods = new ArrayList<>();
+      final List<Object> values = new ArrayList<>();
+
+      for (final String name : properties.stringPropertyNames()) {
+         final Method setter = classSetters.get(name);
+         if (setter == null) {
+            log.warn("There is no property " + name + " in " + clazz.getName() + ", ignoring it.");
+         } else {
+            methods.add(setter);
+            values.add(convert(properties.getProperty(name), setter.getParameterTypes()[0], name));
+         }
+      }
+
+      return new WorkerTemplate(constructor, methods.toArray(new Method[methods.size()]), values.toArray());
+   }
+
+   /**
+    * Gets a template of the worker class with the given properties. The template is compiled only once for the equal definitions,
+    * which is useful when many workers are created from the same definition independently, e.g. the underlying workers of a {@link CompositeWorker}.
+    *
+    * @param className
+    *       The worker class name, the package defaults to org.perfcake.examples.weaver.worker.
+    * @param properties
+    *       The worker properties.
+    * @return The shared template.
+    * @throws ReflectiveOperationException
+    *       When the class is not a worker that can be instantiated.
+    * @throws IllegalArgumentException
+    *       When a property value cannot be converted to the type of its setter.
+    */
+   public static WorkerTemplate of(final String className, final Properties properties) throws ReflectiveOperationException {
+      final String key = className + new TreeMap<>(properties);
+      WorkerTemplate template = templates.getIfPresent(key);
+
+      if (template == null) {
+         template = compile(className, properties);
+         templates.put(key, template);
+      }
+
+      return template;
+   }
+
+   /**
+    * Creates a new worker with the properties of the template.
+    *
+    * @return The new worker.
+    * @throws ReflectiveOperationException
+    *       When the worker cannot be created or a setter fails.
+    */
+   public Worker newInstance() throws ReflectiveOperationException {
+      final Worker worker = constructor.newInstance();
+      for (int i = 0; i < methods.length; i++) {
+         methods[i].invoke(worker, values[i]);
+      }
+
+      return worker;
+   }
+
+   /**
+    * Checks whether a property is meant for an underlying worker of a {@link CompositeWorker}, i.e. it has the form of workerXX_&lt;property&gt;.
+    *
+    * @param key
+    *       The property name.
+    * @return True iff the property is meant for an underlying worker.
+    */
+   public static boolean isWorkerProperty(final String key) {
+      if (!key.startsWith("worker")) {
+         return false;
+      }
+
+      int i = 6;
+      while (i < key.length() && Character.isDigit(key.charAt(i))) {
+         i++;
+      }
+
+      return i > 6 && i < key.length() && key.charAt(i) == '_';
+   }
+
+   /**
+    * Gets the setters of a class, looks them up on the first call.
+    *
+    * @param clazz
+    *       The class.
+    * @return The setters by the property names.
+    * @throws IllegalArgumentException
+    *       When the class cannot be introspected.
+    */
+   private static Map<String, Method> setters(final Class<?> clazz) {
+      Map<String, Method> classSetters = setters.get(clazz);
+
+      if (classSetters == null) {
+         final Map<String, Method> found = new HashMap<>();
+         try {
+            for (final PropertyDescriptor descriptor : Introspector.getBeanInfo(clazz).getPropertyDescriptors()) {
+               if (descriptor.getWriteMethod() != null) {
+                  found.put(descriptor.getName(), descriptor.getWriteMethod());
+               }
+            }
+         } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Unable to find the properties of " + clazz.getName() + ".", e);
+         }
+         classSetters = Collections.unmodifiableMap(found);
+         setters.putIfAbsent(clazz, classSetters);
+      }
+
+      return classSetters;
+   }
+
+   /**
+    * Converts a property value to the type of its setter.
+    *
+    * @param value
+    *       The property value.
+    * @param type
+    *       The setter parameter type.
+    * @param name
+    *       The property name.
+    * @return The converted value.
+    * @throws IllegalArgumentException
+    *       When the value cannot be converted.
+    */
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   private static Object convert(final String value, final Class<?> type, final String name) {
+      final String trimmed = value.trim();
+
+      try {
+         if (type == String.class || type == Object.class) {
+            return value;
+         } else if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(trimmed);
+         } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(trimmed);
+         } else if (type == boolean.class || type == Boolean.class) {
+            return toBoolean(trimmed);
+         } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(trimmed);
+         } else if (type == float.class || type == Float.class) {
+            return Float.valueOf(trimmed);
+         } else if (type == short.class || type == Short.class) {
+            return Short.valueOf(trimmed);
+         } else if (type == byte.class || type == Byte.class) {
+            return Byte.valueOf(trimmed);
+         } else if ((type == char.class || type == Character.class) && value.length() == 1) {
+            return value.charAt(0);
+         } else if (type.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) type, trimmed.toUpperCase(Locale.ROOT));
+         }
+      } catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("Invalid value '" + value + "' of property " + name + " of type " + type.getSimpleName() + ".", e);
+      }
+
+      throw new IllegalArgumentException("Unsupported type " + type.getName() + " of property " + name + ".");
+   }
+
+   /**
+    * Converts a property value to a boolean.
+    *
+    * @param value
+    *       The property value.
+    * @return The boolean value.
+    * @throws IllegalArgumentException
+    *       When the value is not a boolean.
+    */
+   private static Boolean toBoolean(final String value) {
+      switch (value.toLowerCase(Locale.ROOT)) {
+         case "true":
+         case "yes":
+         case "y":
+         case "on":
+         case "1":
+            return Boolean.TRUE;
+         case "false":
+         case "no":
+         case "n":
+         case "off":
+         case "0":
+            return Boolean.FALSE;
+         default:
+            throw new IllegalArgumentException("Not a boolean value.");
+      }
+   }
+}
@@ -19,14 +19,20 @@
  */
 package org.perfcake.examples.weaver.worker;
 
+import org.perfcake.examples.weaver.metrics.RequestMetrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
 import io.vertx.ext.web.RoutingContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * A thread processing an incoming request using a worker.
+ * Asynchronous workers are only started by the thread and the response is finished later without occupying the thread.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -35,38 +41,225 @@ public class WorkerThread implements Runnable {
    private static final Logger log = LogManager.getLogger(WorkerThread.class);
 
    /**
-    * Queue of workers to process the requests.
+    * The key of the path prefix of the route serving the request in the routing context.
+    */
+   private static final String ROUTE_PATH_KEY = WorkerThread.class.getName() + ".routePath";
+
+   /**
+    * Logs failures of asynchronous workers.
     */
-   private final Queue<Worker> workers;
+   private static final Handler<AsyncResult<Void>> failureLogger = result -> {
+      if (result.failed()) {
+         log.error("Error processing request: ", result.cause());
+      }
+   };
+
+   /**
+    * Pool of workers to process the requests.
+    */
+   private final WorkerPool workers;
 
    /**
     * Incoming HTTP routing context.
     */
    private final RoutingContext context;
 
+   /**
+    * Answers the request when it waited in the queue for too long.
+    */
+   private final LoadShedder loadShedder;
+
+   /**
+    * When the request was put to the queue.
+    */
+   private final long enqueued = System.nanoTime();
+
+   /**
+    * Whether the request entered the pool of workers, so that it must exit it once it is processed or dropped.
+    */
+   private boolean entered = false;
+
+   /**
+    * Timer shedding the request when it waits in the queue for too long, -1 when there is none.
+   private volatile long expiryTimer = -1;
+
    /**
     * Creates a new thread instance.
     *
     * @param workers
-    *       Queue of workers to poll from.
+    *       Pool of workers to check out from.
     * @param context
     *       Incoming HTTP routing context.
+    * @param loadShedder
+    *       Load shedder to answer the request when it waited in the queue for too long.
     */
-   public WorkerThread(final Queue<Worker> workers, final RoutingContext context) {
+   public WorkerThread(final WorkerPool workers, final RoutingContext context, final LoadShedder loadShedder) {
       this.workers = workers;
       this.context = context;
+      this.loadShedder = loadShedder;
    }
 
    @Override
    public void run() {
-      final Worker w = workers.poll();
+      final long timer = expiryTimer;
+      if (timer >= 0) {
+         context.vertx().cancelTimer(timer);
+      }
+
+      final RequestMetrics metrics = RequestMetrics.of(context);
+      if (metrics != null) {
+         metrics.queued(System.nanoTime() - enqueued);
+      }
 
       try {
+         final Worker w = workers.checkout();
+         try {
+            process(w, context);
+         } finally {
+            workers.release(w);
+         }
+      } finally {
+         exit();
+      }
+   }
+
+   /**
+    * Submits the request for processing to the executor. When the load shedder limits the time in the queue, a timer on the event loop
+    * of the request sheds the request as soon as the time elapses, unless a thread has taken it from the queue meanwhile.
+    * The timer is cancelled once a thread takes the request. The request enters the pool of workers, so that the pool is not closed
+    * before the request is processed.
+    *
+    * @param executor
+    *       The executor to process the request.
+    * @throws RejectedExecutionException
+    *       When the executor was shut down or the pool of workers was retired.
+    */
+   public void submit(final ThreadPoolExecutor executor) {
+      if (!workers.enter()) {
+         throw new RejectedExecutionException("The pool of workers was retired.");
+      }
+      entered = true;
+
+      try {
+         executor.execute(this);
+      } catch (RejectedExecutionException e) {
+         exit();
+         throw e;
+      }
+
+      final long timeout = loadShedder.getQueueTimeout();
+      if (timeout > 0 && !context.response().ended()) { // not shed right away
+         expiryTimer = context.vertx().setTimer(timeout, id -> {
+            if (executor.remove(this)) {
+               exit();
+               final RequestMetrics metrics = RequestMetrics.of(context);
+               if (metrics != null) {
+                  metrics.expired();
+               }
+               loadShedder.shed(context);
+            }
+         });
+      }
+   }
+
+   /**
+    * Exits the pool of workers when the request is processed, or when it is dropped without being processed.
+    */
+   void exit() {
+      if (entered) {
+         workers.exit();
+      }
+   }
+
+   /**
+    * Gets the HTTP routing context of the request to be processed.
+    *
+    * @return The HTTP routing context.
+    */
+   public RoutingContext getContext() {
+      return context;
+   }
+
+   /**
+    * Gets when the request was put to the queue.
+    *
+    * @return The time in nanoseconds when the request was put to the queue.
+    */
+   public long getEnqueued() {
+      return enqueued;
+   }
+
+   /**
+    * Remembers the path prefix of the route serving the request, so that the workers can get the request path relative to the route.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    * @param routePath
+    *       The path prefix of the route.
+    */
+   public static void setRoutePath(final RoutingContext context, final String routePath) {
+      context.put(ROUTE_PATH_KEY, routePath);
+   }
+
+   /**
+    * Gets the request path relative to the route serving the request.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    * @return The normalised request path without the path prefix of the route.
+    */
+   public static String getRelativePath(final RoutingContext context) {
+      final String path = context.normalisedPath();
+      final String routePath = context.get(ROUTE_PATH_KEY);
+
+      return routePath != null && path.startsWith(routePath) ? path.substring(routePath.length()) : path;
+   }
+
+   /**
+    * Processes the request with the given worker in the current thread. Asynchronous workers are only started.
+    * A streamed request body that was not claimed by the worker is drained afterwards, once an asynchronous worker completes.
+    *
+    * @param w
+    *       The worker to process the request.
+    * @param context
+    *       Incoming HTTP routing context.
+    */
+   public static void process(final Worker w, final RoutingContext context) {
+      final RequestMetrics metrics = RequestMetrics.of(context);
+      if (metrics != null) {
+         metrics.workerStarted(w.getClass());
+      }
+
+      try {
+         if (w instanceof AsyncWorker) {
+            // the worker can still claim the body until it completes
+            ((AsyncWorker) w).workAsync(context).setHandler(result -> {
+               failureLogger.handle(result);
+               completed(context, metrics);
+            });
+            return;
+         }
+
          w.work(context);
       } catch (Throwable t) {
          log.error("Error processing request: ", t);
       }
 
-      workers.offer(w);
+      completed(context, metrics);
+   }
+
+   /**
+    * Drains the streamed request body that was not claimed and finishes the measurement of a request whose connection was closed.
+    *
+    * @param context
+    *       Incoming HTTP routing context.
+    * @param metrics
+    *       The request metrics, null when the metrics are disabled.
+    */
+   private static void completed(final RoutingContext context, final RequestMetrics metrics) {
+      BodyStream.release(context);
+      if (metrics != null) {
+         metrics.completed(context.response());
+      }
    }
 }
@@ -0,0 +1,117 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.LoadShedder;
+import org.perfcake.examples.weaver.worker.WorkerThread;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class ThreadControllerTest {
+
+   @Test
+   public void adaptTest() throws InterruptedException {
+      final WorkerLine line = WorkerLine.parse("20x DelayWorker=delay:10");
+      line.create();
+      final LoadShedder loadShedder = new LoadShedder(503, 1, 0);
+      final Route route = new Route("/", 0, 0, loadShedder);
+      route.setAdaptive(true, 1000);
+      route.publish(Collections.singletonList(line), false);
+      route.start();
+      Assert.assertTrue(route.isAdaptive());
+      Assert.assertEquals(route.getPoolSize(), 1);
+      Assert.assertTrue(route.getExecutor().allowsCoreThreadTimeOut());
+
+      final List<Route> routes = Collections.singletonList(route);
+      final ThreadController controller = new ThreadController(() -> routes, 1, 10, 10);
+      final ThreadPoolExecutor executor = route.getExecutor();
+      final CountDownLatch release = new CountDownLatch(1);
+
+      try {
+         Assert.assertTrue(route.resize(8));
+         for (int i = 0; i < 2; i++) {
+            executor.execute(() -> {
+               try {
+                  release.await();
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            });
+         }
+         while (executor.getActiveCount() < 2) {
+            Thread.sleep(1);
+         }
+
+         // two of eight threads busy for a whole window
+         final ThreadController.Load load = new ThreadController.Load();
+         for (int i = 1; i < ThreadController.WINDOW; i++) {
+            Assert.assertEquals(controller.adapt(route, load, System.nanoTime()), 8);
+         }
+         Assert.assertEquals(controller.adapt(route, load, System.nanoTime()), 6);
+
+         // both threads busy and the requests waiting
+         Assert.assertTrue(route.resize(2));
+         for (int i = 0; i < 3; i++) {
+            executor.execute(new WorkerThread(route.getWorkerPool(), null, loadShedder));
+         }
+         Assert.assertEquals(executor.getQueue().size(), 3);
+         Assert.assertEquals(controller.adapt(route, new ThreadController.Load(), System.nanoTime() + TimeUnit.SECONDS.toNanos(1)), 4);
+         Assert.assertEquals(new ThreadController(() -> routes, 1, 10, 60_000).adapt(route, new ThreadController.Load(), System.nanoTime()), 2);
+         Assert.assertEquals(new ThreadController(() -> routes, 1, 3, 10).adapt(route, new ThreadController.Load(), System.nanoTime() + TimeUnit.SECONDS.toNanos(1)), 3);
+
+         // the requests waited at the start of the window, so no threads are removed at its end
+         final ThreadController patient = new ThreadController(() -> routes, 1, 10, 60_000);
+         final ThreadController.Load window = new ThreadController.Load();
+         Assert.assertEquals(patient.adapt(route, window, System.nanoTime()), 2);
+         executor.getQueue().clear();
+         Assert.assertTrue(route.resize(8));
+         for (int i = 1; i < ThreadController.WINDOW; i++) {
+            Assert.assertEquals(patient.adapt(route, window, System.nanoTime()), 8);
+         }
+         for (int i = 1; i < ThreadController.WINDOW; i++) {
+            Assert.assertEquals(patient.adapt(route, window, System.nanoTime()), 8);
+         }
+         Assert.assertEquals(patient.adapt(route, window, System.nanoTime()), 6);
+
+         route.setThreads(5);
+         Assert.assertFalse(route.isAdaptive());
+         Assert.assertFalse(route.resize(4));
+      } finally {
+         executor.shutdownNow();
+         release.countDown();
+         line.close();
+      }
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void boundsTest() {
+      new ThreadController(Collections::emptyList, 5, 2, 10);
+   }
+}
@@ -0,0 +1,422 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.metrics.Metrics;
+import org.perfcake.examples.weaver.worker.NormalWorker;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.RoutingContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WeaverServerTest {
+
+   @Test
+   public void streamingAsyncMirrorTest() throws Exception {
+      final Weaver weaver = createWeaver("2x DelayWorker=delay:200,mirrorRequest:true");
+      weaver.setStreaming(true);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.POST, "/", "hello-body"), "200 hello-body");
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void asyncDelayTest() throws Exception {
+      final Weaver weaver = createWeaver("1x DelayWorker=delay:1000,response:Late");
+      weaver.setThreads(1);
+      weaver.setInline(false);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         final List<CompletableFuture<String>> responses = new ArrayList<>();
+         for (int i = 0; i < 3; i++) {
+            responses.add(requestAsync(vertx, weaver, HttpMethod.GET, "/", null));
+         }
+
+         // the single thread and the single worker are free again while the delays are still running
+         final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+         while (weaver.getExecutor().getCompletedTaskCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+         }
+         Assert.assertEquals(weaver.getExecutor().getCompletedTaskCount(), 3);
+         Assert.assertTrue(responses.stream().noneMatch(CompletableFuture::isDone));
+
+         for (final CompletableFuture<String> response : responses) {
+            Assert.assertEquals(response.get(5, TimeUnit.SECONDS), "200 Late");
+         }
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void responseTest() throws Exception {
+      final Weaver weaver = createWeaver("1x NormalWorker=response:Příliš žluťoučký kůň", "[/mirror]", "1x NormalWorker=mirrorRequest:true");
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 Příliš žluťoučký kůň");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 Příliš žluťoučký kůň");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.POST, "/mirror", "úpěl ďábelské ódy"), "200 úpěl ďábelské ódy");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.POST, "/mirror", ""), "200 ");
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void maxBodySizeTest() throws Exception {
+      final String large = new String(new char[1000]).replace('\0', 'a');
+      for (final boolean streaming : new boolean[] { true, false }) {
+         final Weaver weaver = createWeaver("1x NormalWorker=mirrorRequest:true");
+         weaver.setStreaming(streaming);
+         weaver.setMaxBodySize(100);
+         weaver.init();
+
+         final WeaverServer server = new WeaverServer(weaver);
+         final Vertx vertx = Vertx.vertx();
+         try {
+            Assert.assertEquals(request(vertx, weaver, HttpMethod.POST, "/", "small-body"), "200 small-body");
+            Assert.assertTrue(request(vertx, weaver, HttpMethod.POST, "/", large).startsWith("413 "));
+         } finally {
+            close(vertx, server, weaver);
+         }
+      }
+   }
+
+   @Test
+   public void fileWorkerTest() throws Exception {
+      final Path dir = Files.createTempDirectory("weaver");
+      Files.createDirectory(dir.resolve("sub"));
+      Files.write(dir.resolve("index.html"), "Hello".getBytes(StandardCharsets.UTF_8));
+
+      final Weaver weaver = createWeaver("1x FileWorker=directory:" + dir, "[/mmap]", "1x FileWorker=directory:" + dir + ",mmap:true,header:X-File",
+            "[/static]", "1x FileWorker=directory:" + dir);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/index.html", null), "200 Hello");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/sub", null), "404 ");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/missing.html", null), "404 ");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/mmap", null, "X-File", "index.html"), "200 Hello");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/mmap", null, "X-File", "sub"), "404 ");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/mmap", null, "X-File", "missing.html"), "404 ");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/static/index.html", null), "200 Hello");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/static", null), "404 ");
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void throttledTest() throws Exception {
+      final Weaver weaver = createWeaver("1x ThrottledWorker=size:1000,rate:10000");
+      weaver.setStreaming(true);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.POST, "/", "body").length(), "200 ".length() + 1000);
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null).length(), "200 ".length() + 1000);
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void shedTest() throws Exception {
+      BlockingWorker.started = new CountDownLatch(1);
+      BlockingWorker.release = new CountDownLatch(1);
+      final Weaver weaver = createWeaver("1x " + BlockingWorker.class.getName());
+      weaver.setThreads(1);
+      weaver.setQueueCapacity(1);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         final CompletableFuture<String> processed = requestAsync(vertx, weaver, HttpMethod.GET, "/", null);
+         Assert.assertTrue(BlockingWorker.started.await(5, TimeUnit.SECONDS));
+         final CompletableFuture<String> queued = requestAsync(vertx, weaver, HttpMethod.GET, "/", null);
+         final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+         while (weaver.getExecutor().getQueue().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+         }
+
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "503 ");
+         BlockingWorker.release.countDown();
+         Assert.assertEquals(processed.get(5, TimeUnit.SECONDS), "200 ");
+         Assert.assertEquals(queued.get(5, TimeUnit.SECONDS), "200 ");
+         Assert.assertEquals(metric(request(vertx, weaver, HttpMethod.GET, Metrics.PATH, null), "weaver_requests_rejected_total"), 1);
+      } finally {
+         BlockingWorker.release.countDown();
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void queueTimeoutTest() throws Exception {
+      BlockingWorker.started = new CountDownLatch(1);
+      BlockingWorker.release = new CountDownLatch(1);
+      final Weaver weaver = createWeaver("1x " + BlockingWorker.class.getName());
+      weaver.setThreads(1);
+      weaver.setQueueTimeout(200);
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         final CompletableFuture<String> processed = requestAsync(vertx, weaver, HttpMethod.GET, "/", null);
+         Assert.assertTrue(BlockingWorker.started.await(5, TimeUnit.SECONDS));
+
+         // the only thread is still busy, the queued request must not wait for it
+         final long start = System.nanoTime();
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "503 ");
+         Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+         Assert.assertFalse(processed.isDone());
+         Assert.assertTrue(weaver.getExecutor().getQueue().isEmpty());
+
+         BlockingWorker.release.countDown();
+         Assert.assertEquals(processed.get(5, TimeUnit.SECONDS), "200 ");
+         Assert.assertEquals(metric(request(vertx, weaver, HttpMethod.GET, Metrics.PATH, null), "weaver_requests_expired_total"), 1);
+      } finally {
+         BlockingWorker.release.countDown();
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void metricsTest() throws Exception {
+      final Weaver weaver = createWeaver("2x NormalWorker=response:Hello");
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         final long before = metric(request(vertx, weaver, HttpMethod.GET, Metrics.PATH, null), "weaver_requests_total");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 Hello");
+         Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 Hello");
+
+         final String metrics = request(vertx, weaver, HttpMethod.GET, Metrics.PATH, null);
+         Assert.assertEquals(metric(metrics, "weaver_requests_total"), before + 2);
+         Assert.assertEquals(metric(metrics, "weaver_requests_in_flight"), 0);
+         Assert.assertEquals(metric(metrics, "weaver_worker_service_time_seconds_count{worker=\"NormalWorker\"}"), 2);
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void inlineTest() throws Exception {
+      for (final boolean inline : new boolean[] { true, false }) {
+         final Weaver weaver = createWeaver("2x " + RecordingWorker.class.getName());
+         weaver.setInline(inline);
+         weaver.init();
+
+         final WeaverServer server = new WeaverServer(weaver);
+         final Vertx vertx = Vertx.vertx();
+         try {
+            RecordingWorker.onEventLoop = null;
+            Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 ");
+            Assert.assertEquals(RecordingWorker.onEventLoop, Boolean.valueOf(inline));
+            Assert.assertEquals(weaver.getExecutor().getTaskCount(), inline ? 0 : 1);
+         } finally {
+            close(vertx, server, weaver);
+         }
+      }
+   }
+
+   @Test
+   public void mixedInlineTest() throws Exception {
+      BlockingWorker.started = new CountDownLatch(0);
+      BlockingWorker.release = new CountDownLatch(0);
+      final Weaver weaver = createWeaver("1x " + RecordingWorker.class.getName(), "1x " + BlockingWorker.class.getName());
+      weaver.init();
+
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         RecordingWorker.onEventLoop = null;
+         for (int i = 0; i < 10 && RecordingWorker.onEventLoop == null; i++) {
+            Assert.assertEquals(request(vertx, weaver, HttpMethod.GET, "/", null), "200 ");
+         }
+         Assert.assertEquals(RecordingWorker.onEventLoop, Boolean.FALSE);
+         Assert.assertTrue(weaver.getExecutor().getTaskCount() > 0);
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   @Test
+   public void h2cTest() throws Exception {
+      final Weaver weaver = createWeaver("2x NormalWorker=response:Hello");
+      weaver.setH2MaxStreams(10);
+      weaver.setH2WindowSize(128 * 1024);
+      weaver.setH2ConnectionWindowSize(1024 * 1024);
+
+      final HttpServerOptions options = WeaverServer.createServerOptions(weaver);
+      Assert.assertEquals(options.getInitialSettings().getMaxConcurrentStreams(), 10);
+      Assert.assertEquals(options.getInitialSettings().getInitialWindowSize(), 128 * 1024);
+      Assert.assertEquals(options.getHttp2ConnectionWindowSize(), 1024 * 1024);
+
+      weaver.init();
+      final WeaverServer server = new WeaverServer(weaver);
+      final Vertx vertx = Vertx.vertx();
+      try {
+         final CompletableFuture<String> result = new CompletableFuture<>();
+         final HttpClientOptions clientOptions = new HttpClientOptions().setProtocolVersion(HttpVersion.HTTP_2).setHttp2ClearTextUpgrade(false);
+         vertx.createHttpClient(clientOptions).getNow(weaver.getPort(), "localhost", "/",
+               response -> response.bodyHandler(data -> result.complete(response.version() + " " + response.statusCode() + " " + data)));
+         Assert.assertEquals(result.get(5, TimeUnit.SECONDS), "HTTP_2 200 Hello");
+      } finally {
+         close(vertx, server, weaver);
+      }
+   }
+
+   private static Weaver createWeaver(final String... configLines) throws IOException {
+      final File config = File.createTempFile("weaver-test", ".cfg");
+      config.deleteOnExit();
+      Files.write(config.toPath(), Arrays.asList(configLines));
+
+      final Weaver weaver = new Weaver();
+      weaver.setConfig(config.getAbsolutePath());
+      weaver.setPort(freePort());
+      weaver.setServerInstances(1);
+
+      return weaver;
+   }
+
+   private static String request(final Vertx vertx, final Weaver weaver, final HttpMethod method, final String path, final String body, final String... headers) throws Exception {
+      return requestAsync(vertx, weaver, method, path, body, headers).get(5, TimeUnit.SECONDS);
+   }
+
+   private static CompletableFuture<String> requestAsync(final Vertx vertx, final Weaver weaver, final HttpMethod method, final String path, final String body,
+         final String... headers) {
+      final CompletableFuture<String> result = new CompletableFuture<>();
+      final HttpClientRequest request = vertx.createHttpClient().request(method, weaver.getPort(), "localhost", path,
+            response -> response.bodyHandler(data -> result.complete(response.statusCode() + " " + data)));
+      request.exceptionHandler(result::completeExceptionally);
+      for (int i = 0; i + 1 < headers.length; i += 2) {
+         request.putHeader(headers[i], headers[i + 1]);
+      }
+
+      if (body != null) {
+         request.end(Buffer.buffer(body));
+      } else {
+         request.end();
+      }
+
+      return result;
+   }
+
+   private static long metric(final String metrics, final String name) {
+      final Matcher matcher = Pattern.compile("(?m)^" + Pattern.quote(name) + " (\\d+)$").matcher(metrics);
+      Assert.assertTrue(matcher.find(), "Missing metric " + name + " in " + metrics);
+
+      return Long.parseLong(matcher.group(1));
+   }
+
+   private static void close(final Vertx vertx, final WeaverServer server, final Weaver weaver) {
+      vertx.close();
+      server.close();
+      weaver.getRoutes().forEach(Route::close);
+   }
+
+   private static int freePort() throws IOException {
+      try (ServerSocket socket = new ServerSocket(0)) {
+         return socket.getLocalPort();
+      }
+   }
+
+   /**
+    * Blocks the thread until it is released.
+    */
+   public static class BlockingWorker extends NormalWorker {
+
+      private static volatile CountDownLatch started;
+
+      private static volatile CountDownLatch release;
+
+      @Override
+      public void work(final RoutingContext context) throws Exception {
+         started.countDown();
+         release.await(5, TimeUnit.SECONDS);
+         super.work(context);
+      }
+   }
+
+   /**
+    * Records whether it was run on the event loop.
+    */
+   public static class RecordingWorker extends NormalWorker {
+
+      private static volatile Boolean onEventLoop;
+
+      @Override
+      public void work(final RoutingContext context) throws Exception {
+         onEventLoop = Context.isOnEventLoopThread();
+         super.work(context);
+      }
+
+      @Override
+      public boolean isNonBlocking() {
+         return true;
+      }
+   }
+}
@@ -0,0 +1,158 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.DelayWorker;
+import org.perfcake.examples.weaver.worker.NormalWorker;
+import org.perfcake.examples.weaver.worker.WorkerPool;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WeaverTest {
+
+   @Test
+   public void reloadTest() throws IOException {
+      final File config = File.createTempFile("weaver-test", ".cfg");
+      config.deleteOnExit();
+      Files.write(config.toPath(), Collections.singletonList("2x NormalWorker=statusCode:200"));
+
+      final Weaver weaver = new Weaver();
+      weaver.setConfig(config.getAbsolutePath());
+      weaver.init();
+      Assert.assertEquals(weaver.getWorkers().size(), 2);
+      Assert.assertEquals(weaver.getExecutor().getCorePoolSize(), 2);
+
+      final WorkerPool oldPool = weaver.getWorkerPool();
+      Files.write(config.toPath(), Collections.singletonList("5x DelayWorker=delay:10"));
+      Assert.assertTrue(weaver.reload());
+      Assert.assertNotSame(weaver.getWorkerPool(), oldPool);
+      Assert.assertEquals(weaver.getWorkers().size(), 5);
+      Assert.assertTrue(weaver.getWorkers().get(0) instanceof DelayWorker);
+      Assert.assertEquals(weaver.getExecutor().getCorePoolSize(), 5);
+      Assert.assertEquals(weaver.getExecutor().getMaximumPoolSize(), 5);
+
+      Files.write(config.toPath(), Collections.singletonList("# no workers"));
+      Assert.assertFalse(weaver.reload());
+      Assert.assertEquals(weaver.getWorkers().size(), 5);
+
+      Files.write(config.toPath(), Collections.singletonList("1x NormalWorker=statusCode:201"));
+      Assert.assertTrue(weaver.reload());
+      Assert.assertEquals(((NormalWorker) weaver.getWorkerPool().getWorkers().get(0)).getStatusCode(), 201);
+      Assert.assertEquals(weaver.getExecutor().getCorePoolSize(), 1);
+      Assert.assertEquals(weaver.getExecutor().getMaximumPoolSize(), 1);
+
+      weaver.close();
+   }
+
+   @Test
+   public void updateTest() throws IOException, ReflectiveOperationException {
+      final File config = File.createTempFile("weaver-test", ".cfg");
+      config.deleteOnExit();
+      Files.write(config.toPath(), Arrays.asList("4x NormalWorker=statusCode:200", "# comment", "2x DelayWorker=delay:10"));
+
+      final Weaver weaver = new Weaver();
+      weaver.setConfig(config.getAbsolutePath());
+      weaver.init();
+      Assert.assertEquals(weaver.getLines().size(), 2);
+      Assert.assertEquals(weaver.getPoolSize(), 6);
+
+      weaver.updateThreads(3);
+      Assert.assertEquals(weaver.getPoolSize(), 3);
+      Assert.assertEquals(weaver.getExecutor().getMaximumPoolSize(), 3);
+
+      final NormalWorker kept = (NormalWorker) weaver.getWorkers().get(0);
+      weaver.updateMultiplicity(0, 1);
+      Assert.assertEquals(weaver.getWorkers().size(), 3);
+      Assert.assertSame(weaver.getWorkers().get(0), kept);
+
+      weaver.updateMultiplicity(1, 0);
+      Assert.assertEquals(weaver.getWorkers().size(), 1);
+      Assert.assertEquals(weaver.getPoolSize(), 1);
+      Assert.assertEquals(weaver.getExecutor().getCorePoolSize(), 1);
+
+      try {
+         weaver.updateMultiplicity(0, 0);
+         Assert.fail("It must not be possible to remove all the workers.");
+      } catch (IllegalArgumentException e) {
+         Assert.assertEquals(weaver.getWorkers().size(), 1);
+      }
+
+      weaver.updateMultiplicity(1, 5);
+      Assert.assertEquals(weaver.getWorkers().size(), 6);
+      Assert.assertEquals(weaver.getPoolSize(), 3);
+
+      weaver.close();
+   }
+
+   @Test
+   public void routesTest() throws IOException {
+      final File config = File.createTempFile("weaver-test", ".cfg");
+      config.deleteOnExit();
+      Files.write(config.toPath(), Arrays.asList("2x NormalWorker=statusCode:200", "[/orders] threads:1,queueCapacity:10", "3x NormalWorker=statusCode:201",
+            "[/orders/slow/]", "1x DelayWorker=delay:10"));
+
+      final Weaver weaver = new Weaver();
+      weaver.setConfig(config.getAbsolutePath());
+      weaver.init();
+      Assert.assertEquals(weaver.getRoutes().size(), 3);
+      Assert.assertEquals(weaver.getWorkers().size(), 2);
+
+      final Route orders = weaver.route("/orders/12");
+      Assert.assertEquals(orders.getPath(), "/orders");
+      Assert.assertSame(weaver.route("/orders"), orders);
+      Assert.assertEquals(weaver.route("/orders/slow/1").getPath(), "/orders/slow");
+      Assert.assertTrue(weaver.route("/ordersX").isDefault());
+      Assert.assertTrue(weaver.route("/").isDefault());
+      Assert.assertEquals(orders.getPoolSize(), 1);
+      Assert.assertEquals(orders.getExecutor().getQueue().remainingCapacity(), 10);
+      Assert.assertNotSame(orders.getExecutor(), weaver.getExecutor());
+
+      weaver.updateThreads("/orders", 3);
+      Assert.assertEquals(orders.getExecutor().getMaximumPoolSize(), 3);
+      Assert.assertEquals(weaver.getPoolSize(), 2);
+
+      final Route slow = weaver.getRoute("/orders/slow");
+      Files.write(config.toPath(), Arrays.asList("[/orders] threads:2,queueCapacity:10", "1x NormalWorker=statusCode:202"));
+      Assert.assertTrue(weaver.reload());
+      Assert.assertSame(weaver.route("/orders/slow/1"), orders);
+      Assert.assertEquals(orders.getExecutor().getMaximumPoolSize(), 1);
+      Assert.assertNull(weaver.route("/other"));
+      Assert.assertTrue(slow.getExecutor().isShutdown());
+      Assert.assertNull(weaver.getExecutor());
+
+      Files.write(config.toPath(), Arrays.asList("1x NormalWorker=statusCode:200", "[/orders] threads:-1", "1x NormalWorker=statusCode:200"));
+      Assert.assertFalse(weaver.reload());
+      Files.write(config.toPath(), Arrays.asList("1x NormalWorker=statusCode:200", "[/orders]"));
+      Assert.assertFalse(weaver.reload());
+      Assert.assertSame(weaver.route("/orders"), orders);
+
+      weaver.getRoutes().forEach(Route::close);
+   }
+}
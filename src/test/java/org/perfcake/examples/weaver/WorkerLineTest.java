@@ -0,0 +1,73 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver;
+
+import org.perfcake.examples.weaver.worker.MapConfigurable;
+import org.perfcake.examples.weaver.worker.Worker;
+
+import io.vertx.ext.web.RoutingContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WorkerLineTest {
+
+   @Test
+   public void skipRefusedTest() throws ReflectiveOperationException {
+      RefusingWorker.created.set(0);
+      final WorkerLine line = WorkerLine.parse("10x " + RefusingWorker.class.getName());
+      line.create();
+      Assert.assertEquals(RefusingWorker.created.get(), 10);
+      Assert.assertEquals(line.getWorkers().size(), 7);
+
+      line.setMultiplicity(10);
+      Assert.assertEquals(RefusingWorker.created.get(), 13);
+      Assert.assertEquals(line.getWorkers().size(), 9);
+
+      line.setMultiplicity(3);
+      Assert.assertEquals(line.getWorkers().size(), 3);
+      line.close();
+   }
+
+   /**
+    * Refuses the configuration of every third instance.
+    */
+   public static class RefusingWorker implements Worker, MapConfigurable {
+
+      /**
+       * Number of instances configured so far.
+       */
+      private static final AtomicInteger created = new AtomicInteger();
+
+      @Override
+      public boolean configure(final Properties configuration) {
+         return created.incrementAndGet() % 3 != 0;
+      }
+
+      @Override
+      public void work(final RoutingContext context) {
+      }
+   }
+}
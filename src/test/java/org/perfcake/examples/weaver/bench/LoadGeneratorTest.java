@@ -0,0 +1,100 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.bench;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class LoadGeneratorTest {
+
+   private static final Pattern REQUESTS = Pattern.compile("Requests: +(\\d+) completed, (\\d+) non-2xx, (\\d+) errors");
+
+   private Vertx vertx;
+
+   private HttpServer server;
+
+   @BeforeClass
+   public void startServer() throws Exception {
+      vertx = Vertx.vertx();
+      final CompletableFuture<HttpServer> started = new CompletableFuture<>();
+      vertx.createHttpServer().requestHandler(request -> request.response().setStatusCode("/fail".equals(request.path()) ? 500 : 200).end("ok"))
+           .listen(0, result -> {
+              if (result.succeeded()) {
+                 started.complete(result.result());
+              } else {
+                 started.completeExceptionally(result.cause());
+              }
+           });
+      server = started.get(5, TimeUnit.SECONDS);
+   }
+
+   @AfterClass
+   public void stopServer() {
+      vertx.close();
+   }
+
+   @Test
+   public void closedLoopTest() throws InterruptedException {
+      final long[] requests = run(new LoadGenerator("localhost", server.actualPort(), "/", 4, 0, LoadGenerator.Protocol.HTTP1));
+      Assert.assertTrue(requests[0] > 0);
+      Assert.assertEquals(requests[1], 0);
+      Assert.assertEquals(requests[2], 0);
+   }
+
+   @Test
+   public void openLoopTest() throws InterruptedException {
+      final long[] requests = run(new LoadGenerator("localhost", server.actualPort(), "/", 4, 200, LoadGenerator.Protocol.HTTP1));
+      Assert.assertTrue(requests[0] >= 150 && requests[0] <= 250, "Completed " + requests[0] + " requests.");
+      Assert.assertEquals(requests[2], 0);
+   }
+
+   @Test
+   public void unsuccessfulTest() throws InterruptedException {
+      final long[] requests = run(new LoadGenerator("localhost", server.actualPort(), "/fail", 2, 0, LoadGenerator.Protocol.PIPELINED));
+      Assert.assertTrue(requests[0] > 0);
+      Assert.assertEquals(requests[1], requests[0]);
+   }
+
+   static long[] run(final LoadGenerator generator) throws InterruptedException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      generator.run(0, 1, new PrintStream(out, true));
+
+      final String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+      final Matcher matcher = REQUESTS.matcher(report);
+      Assert.assertTrue(matcher.find(), "Unexpected report " + report);
+
+      return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) };
+   }
+}
@@ -0,0 +1,70 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MetricsTest {
+
+   @Test
+   public void scrapeTest() {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+      final Metrics metrics = new Metrics(() -> Collections.singletonMap("/api", executor));
+      try {
+         metrics.requestStarted();
+         metrics.requestStarted();
+         metrics.requestStarted();
+         metrics.requestFinished();
+         metrics.requestRejected();
+         metrics.requestExpired();
+         metrics.queueWait(TimeUnit.MILLISECONDS.toNanos(2));
+         metrics.serviceTime(String.class, TimeUnit.MILLISECONDS.toNanos(10));
+         metrics.serviceTime(String.class, TimeUnit.MILLISECONDS.toNanos(30));
+
+         final String first = metrics.scrape();
+         Assert.assertTrue(first.contains("# TYPE weaver_requests_total counter\nweaver_requests_total 3\n"));
+         Assert.assertTrue(first.contains("# TYPE weaver_requests_in_flight gauge\nweaver_requests_in_flight 2\n"));
+         Assert.assertTrue(first.contains("weaver_requests_rejected_total 1\n"));
+         Assert.assertTrue(first.contains("weaver_requests_expired_total 1\n"));
+         Assert.assertTrue(first.contains("weaver_executor_pool_size{route=\"/api\"} 0\n"));
+         Assert.assertTrue(first.contains("weaver_queue_wait_seconds_count 1\n"));
+         Assert.assertTrue(first.contains("weaver_worker_service_time_seconds{worker=\"String\",quantile=\"1.0\"} 0.03"));
+         Assert.assertTrue(first.contains("weaver_worker_service_time_seconds_sum{worker=\"String\"} 0.040000\n"));
+         Assert.assertTrue(first.contains("weaver_worker_service_time_seconds_count{worker=\"String\"} 2\n"));
+
+         // the quantiles cover the interval since the previous scrape, the counts and sums are cumulative
+         final String second = metrics.scrape();
+         Assert.assertTrue(second.contains("weaver_worker_service_time_seconds{worker=\"String\",quantile=\"0.5\"} NaN\n"));
+         Assert.assertTrue(second.contains("weaver_worker_service_time_seconds_count{worker=\"String\"} 2\n"));
+         Assert.assertTrue(second.contains("weaver_requests_total 3\n"));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
@@ -0,0 +1,43 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class CpuBurnerTest {
+
+   @Test
+   public void burnTest() {
+      Assert.assertTrue(CpuBurner.getUnitsPerMicro() > 0);
+
+      final long start = System.nanoTime();
+      CpuBurner.burn(TimeUnit.MILLISECONDS.toMicros(100));
+      final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // the calibration measures the fastest core, so the work cannot take much less unless it was eliminated
+      Assert.assertTrue(elapsed >= 50, "The work took only " + elapsed + " ms.");
+   }
+}
@@ -0,0 +1,75 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class FileWorkerTest {
+
+   @Test
+   public void resolveTest() throws Exception {
+      final Path dir = Files.createTempDirectory("weaver").toRealPath();
+      Files.createDirectories(dir.resolve("a/b"));
+      Files.write(dir.resolve("index.html"), "Hello".getBytes(StandardCharsets.UTF_8));
+      Files.write(dir.resolve("a/c.txt"), "Hello".getBytes(StandardCharsets.UTF_8));
+      final Path outside = Files.createTempFile("weaver", ".txt");
+      Files.createSymbolicLink(dir.resolve("link.txt"), outside);
+      Files.createSymbolicLink(dir.resolve("inside.txt"), dir.resolve("index.html"));
+
+      final FileWorker worker = new FileWorker();
+      worker.setDirectory(dir.toString());
+
+      Assert.assertEquals(worker.resolve("/index.html"), dir.resolve("index.html"));
+      Assert.assertEquals(worker.resolve("//a/./b/../c.txt"), dir.resolve("a/c.txt"));
+      Assert.assertEquals(worker.resolve("/inside.txt"), dir.resolve("index.html"));
+      Assert.assertNull(worker.resolve("/link.txt"));
+      Assert.assertNull(worker.resolve("/missing.html"));
+      Assert.assertNull(worker.resolve("/../etc/passwd"));
+      Assert.assertNull(worker.resolve("/a/../../" + dir.getFileName() + "x/secret"));
+      Assert.assertNull(worker.resolve("/a\0b"));
+      Assert.assertNull(worker.resolve("/"));
+      Assert.assertNull(worker.resolve(null));
+   }
+
+   @Test
+   public void mapTest() throws Exception {
+      final Path file = Files.createTempFile("weaver", ".txt");
+      Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+
+      final FileWorker.MappedFile mapped = FileWorker.map(file, 5);
+      Assert.assertEquals(mapped.getBuffer().toString(StandardCharsets.UTF_8), "Hello");
+      Assert.assertEquals(mapped.getContentType(), "text/plain");
+      Assert.assertSame(FileWorker.map(file, 5), mapped);
+
+      Assert.assertNull(FileWorker.map(Files.createTempFile("weaver", ".txt").resolveSibling("missing.txt"), 5));
+
+      final Path large = Files.createTempFile("weaver", ".txt");
+      Files.write(large, "Hello World".getBytes(StandardCharsets.UTF_8));
+      Assert.assertNull(FileWorker.map(large, 5));
+   }
+}
@@ -0,0 +1,54 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class GroupRegistryTest {
+
+   @Test
+   public void reloadTest() {
+      final GroupRegistry<Object> registry = new GroupRegistry<>("test object");
+
+      GroupRegistry.begin();
+      final Object a = registry.get("a", "1", Object::new);
+      final Object b = registry.get("b", "1", Object::new);
+      Assert.assertSame(registry.get("a", "2", Object::new), a, "A conflicting definition must get the existing one.");
+      GroupRegistry.commit();
+      Assert.assertSame(registry.get("a", "1", Object::new), a);
+
+      GroupRegistry.begin();
+      Assert.assertSame(registry.get("a", "1", Object::new), a);
+      final Object changed = registry.get("b", "2", Object::new);
+      Assert.assertNotSame(changed, b);
+      GroupRegistry.rollback();
+      Assert.assertSame(registry.get("b", "1", Object::new), b);
+
+      GroupRegistry.begin();
+      Assert.assertNotSame(registry.get("b", "2", Object::new), b);
+      GroupRegistry.commit();
+
+      Assert.assertNotSame(registry.get("a", "1", Object::new), a, "A group removed by a reload must not survive.");
+   }
+}
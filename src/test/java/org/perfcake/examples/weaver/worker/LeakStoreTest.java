@@ -0,0 +1,84 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Locale;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class LeakStoreTest {
+
+   @Test
+   public void rateTest() {
+      final LeakStore store = new LeakStore(LeakStore.Mode.HEAP, 1000, 10_000, 0, 0);
+
+      Assert.assertEquals(store.leak(50_000_000L), 0);
+      Assert.assertEquals(store.leak(100_000_000L), 1);
+      Assert.assertEquals(store.leak(100_000_000L), 0);
+      Assert.assertEquals(store.leak(550_000_000L), 4);
+      Assert.assertEquals(store.getRetained(), 5_000);
+
+      Assert.assertEquals(store.leak(10_000_000_000L), 10);
+      Assert.assertEquals(store.getRetained(), 15_000);
+   }
+
+   @Test
+   public void limitTest() {
+      final LeakStore heap = new LeakStore(LeakStore.Mode.HEAP, 1000, 0, 3500);
+      final LeakStore direct = new LeakStore(LeakStore.Mode.DIRECT, 1000, 0, 3500);
+
+      for (int i = 0; i < 10; i++) {
+         heap.leak();
+         direct.leak();
+      }
+      Assert.assertEquals(heap.getRetained(), 3000);
+      Assert.assertEquals(direct.getRetained(), 3000);
+
+      heap.retain("body", 2000);
+      Assert.assertEquals(heap.getRetained(), 3000);
+   }
+
+   @Test
+   public void groupTest() {
+      Assert.assertSame(LeakStore.forGroup("leakStoreTest", LeakStore.Mode.HEAP, 1, 0, 0), LeakStore.forGroup("leakStoreTest", LeakStore.Mode.DIRECT, 2, 0, 0));
+      Assert.assertNotSame(LeakStore.forGroup("leakStoreTest", LeakStore.Mode.HEAP, 1, 0, 0), LeakStore.forGroup("leakStoreTest2", LeakStore.Mode.HEAP, 1, 0, 0));
+   }
+
+   @Test
+   public void modeTest() {
+      final Locale locale = Locale.getDefault();
+      Locale.setDefault(new Locale("tr", "TR"));
+      try {
+         final MemoryLeakWorker worker = new MemoryLeakWorker();
+         worker.setMode("direct");
+         Assert.assertEquals(worker.getMode(), "direct");
+         Assert.assertFalse(worker.isNonBlocking());
+
+         worker.setMode("HEAP");
+         Assert.assertEquals(worker.getMode(), "heap");
+      } finally {
+         Locale.setDefault(locale);
+      }
+   }
+}
@@ -0,0 +1,123 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.vertx.core.buffer.Buffer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class NormalWorkerTest {
+
+   @Test
+   public void negotiateTest() {
+      Assert.assertNull(NormalWorker.negotiate(null));
+      Assert.assertNull(NormalWorker.negotiate("identity"));
+      Assert.assertNull(NormalWorker.negotiate("br, gzip;q=0"));
+      Assert.assertEquals(NormalWorker.negotiate("gzip, deflate, br"), "gzip");
+      Assert.assertEquals(NormalWorker.negotiate("deflate"), "deflate");
+      Assert.assertEquals(NormalWorker.negotiate("gzip;q=0.5, deflate;q=0.8"), "deflate");
+      Assert.assertEquals(NormalWorker.negotiate("x-gzip"), "gzip");
+      Assert.assertEquals(NormalWorker.negotiate("*;q=0.1, gzip;q=0"), "deflate");
+   }
+
+   @Test
+   public void compressTest() throws Exception {
+      final byte[] data = new String(new char[1000]).replace('\0', 'a').getBytes(StandardCharsets.UTF_8);
+
+      final byte[] gzip = NormalWorker.compress(data, "gzip", 9);
+      final byte[] deflate = NormalWorker.compress(data, "deflate", 1);
+      Assert.assertTrue(gzip.length < 100);
+      Assert.assertTrue(deflate.length < 100);
+
+      Assert.assertEquals(readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))), data);
+      Assert.assertEquals(readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))), data);
+   }
+
+   @Test
+   public void encodedResponseTest() {
+      final NormalWorker first = new NormalWorker();
+      final NormalWorker second = new NormalWorker();
+      for (final NormalWorker worker : new NormalWorker[] { first, second }) {
+         worker.setCompressionLevel(9);
+         worker.setResponse("Hello shared world");
+         worker.setCompression(true);
+      }
+
+      final NormalWorker.EncodedResponse encoded = first.getEncodedResponse();
+      Assert.assertSame(second.getEncodedResponse(), encoded);
+      Assert.assertSame(first.getEncodedResponse(), encoded);
+      Assert.assertTrue(encoded.isCompressed());
+      Assert.assertEquals(encoded.getBuffer().toString(), "Hello shared world");
+
+      second.setCompressionLevel(1);
+      Assert.assertNotSame(second.getEncodedResponse(), encoded);
+
+      second.setCompression(false);
+      Assert.assertFalse(second.getEncodedResponse().isCompressed());
+   }
+
+   @Test
+   public void preEncodedResponseTest() {
+      final NormalWorker worker = new NormalWorker();
+      worker.setResponse("Příliš žluťoučký kůň");
+      Assert.assertTrue(worker.configure(new Properties()));
+
+      final Buffer buffer = worker.getEncodedResponse().getBuffer();
+      Assert.assertTrue(buffer.getByteBuf().isDirect());
+      Assert.assertTrue(buffer.getByteBuf().isReadOnly());
+      Assert.assertEquals(buffer.getBytes(), "Příliš žluťoučký kůň".getBytes(StandardCharsets.UTF_8));
+      Assert.assertSame(worker.getEncodedResponse().getBuffer(), buffer);
+   }
+
+   @Test
+   public void nonBlockingTest() {
+      final NormalWorker worker = new NormalWorker();
+      worker.setCompression(true);
+      worker.setCompressMirror(true);
+      Assert.assertTrue(worker.isNonBlocking());
+
+      worker.setMirrorRequest(true);
+      Assert.assertFalse(worker.isNonBlocking());
+
+      worker.setCompressMirror(false);
+      Assert.assertTrue(worker.isNonBlocking());
+   }
+
+   private static byte[] readAll(final InputStream in) throws Exception {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+         out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+   }
+}
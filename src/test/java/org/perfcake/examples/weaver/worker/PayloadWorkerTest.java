@@ -0,0 +1,105 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import io.netty.util.internal.PlatformDependent;
+import io.vertx.core.buffer.Buffer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class PayloadWorkerTest {
+
+   @Test
+   public void payloadTest() {
+      final Buffer small = PayloadWorker.reserve(100);
+      Assert.assertTrue(small.length() >= 100);
+      Assert.assertSame(PayloadWorker.reserve(50), small);
+
+      final Buffer large = PayloadWorker.reserve(small.length() + 1000);
+      Assert.assertEquals(large.length(), small.length() + 1000);
+      Assert.assertSame(PayloadWorker.payload(), large);
+      Assert.assertEquals(large.getString(0, 10), "0123456789");
+      Assert.assertEquals(large.getByte(63), (byte) '\n');
+      Assert.assertEquals(large.getString(large.length() - 1000, large.length() - 990), large.getString((large.length() - 1000) % 64, (large.length() - 1000) % 64 + 10));
+   }
+
+   @Test
+   public void configureTest() {
+      final PayloadWorker worker = new PayloadWorker();
+      worker.setDistribution("uniform");
+      worker.setSize(PayloadWorker.payload().length() + 10_000);
+      Assert.assertTrue(worker.configure(new Properties()));
+      Assert.assertEquals(PayloadWorker.payload().length(), 2 * worker.getSize());
+   }
+
+   @Test
+   public void defaultMaxTest() {
+      Assert.assertEquals(Distribution.EXPONENTIAL.getDefaultMax(1000), 13_816);
+
+      final PayloadWorker worker = new PayloadWorker();
+      worker.setDistribution("exponential");
+      worker.setSize(100 * 1024 * 1024);
+      for (int i = 0; i < 1000; i++) {
+         final int size = worker.sample();
+         Assert.assertTrue(size <= worker.getSize(), "Size " + size + " out of bounds.");
+      }
+
+      worker.setSize(8 * 1024 * 1024);
+      for (int i = 0; i < 1000; i++) {
+         Assert.assertTrue(worker.sample() <= PayloadWorker.DEFAULT_MAX_SIZE_CAP);
+      }
+
+      if (PlatformDependent.maxDirectMemory() < Integer.MAX_VALUE) {
+         worker.setSize(Integer.MAX_VALUE);
+         Assert.assertFalse(worker.configure(new Properties()));
+      }
+   }
+
+   @Test
+   public void sampleTest() {
+      final PayloadWorker worker = new PayloadWorker();
+      worker.setSize(1000);
+      Assert.assertEquals(worker.sample(), 1000);
+
+      worker.setDistribution("uniform");
+      worker.setMinSize(500);
+      worker.setMaxSize(700);
+      for (int i = 0; i < 1000; i++) {
+         final int size = worker.sample();
+         Assert.assertTrue(size >= 500 && size <= 700, "Size " + size + " out of bounds.");
+      }
+
+      worker.setDistribution("exponential");
+      worker.setMinSize(0);
+      worker.setMaxSize(0);
+      long sum = 0;
+      for (int i = 0; i < 10_000; i++) {
+         final int size = worker.sample();
+         Assert.assertTrue(size >= 0 && size <= 13_816, "Size " + size + " out of bounds.");
+         sum += size;
+      }
+      Assert.assertEquals(sum / 10_000.0, 1000, 100);
+   }
+}
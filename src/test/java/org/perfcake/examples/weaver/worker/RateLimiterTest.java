@@ -0,0 +1,95 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class RateLimiterTest {
+
+   @Test
+   public void burstTest() {
+      final RateLimiter limiter = new RateLimiter(1000, 5);
+      final long now = System.nanoTime() + 1_000_000_000L;
+
+      for (int i = 0; i < 5; i++) {
+         Assert.assertTrue(limiter.tryAcquire(now), "Request " + i + " of the burst was rejected.");
+      }
+      Assert.assertFalse(limiter.tryAcquire(now));
+      Assert.assertFalse(limiter.tryAcquire(now + 500_000));
+      Assert.assertTrue(limiter.tryAcquire(now + 1_000_000));
+      Assert.assertFalse(limiter.tryAcquire(now + 1_000_000));
+   }
+
+   @Test
+   public void concurrentTest() throws InterruptedException {
+      final RateLimiter limiter = new RateLimiter(1000, 10);
+      final long now = System.nanoTime() + 1_000_000_000L;
+      final AtomicInteger allowed = new AtomicInteger(0);
+
+      final List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+         threads.add(new Thread(() -> {
+            for (int i = 0; i < 10_000; i++) {
+               if (limiter.tryAcquire(now + i * 1_000L)) {
+                  allowed.incrementAndGet();
+               }
+            }
+         }));
+      }
+      threads.forEach(Thread::start);
+      for (final Thread thread : threads) {
+         thread.join();
+      }
+
+      // 10 ms elapsed at most, which is 10 requests plus the burst of 10
+      Assert.assertTrue(allowed.get() >= 10 && allowed.get() <= 20, "Allowed " + allowed.get() + " requests.");
+   }
+
+   @Test
+   public void groupTest() {
+      Assert.assertSame(RateLimiter.forGroup("rateLimiterTest", 100, 1), RateLimiter.forGroup("rateLimiterTest", 200, 2));
+      Assert.assertNotSame(RateLimiter.forGroup("rateLimiterTest", 100, 1), RateLimiter.forGroup("rateLimiterTest2", 100, 1));
+   }
+
+   @Test
+   public void lineTest() {
+      final MaxSpeedWorker[] workers = new MaxSpeedWorker[4];
+      for (int i = 0; i < workers.length; i++) {
+         workers[i] = new MaxSpeedWorker();
+         workers[i].setShared(i != 2);
+         final Properties configuration = new Properties();
+         configuration.setProperty(MapConfigurable.LINE, i < 3 ? "[/] rateLimiterLineTest" : "[/other] rateLimiterLineTest");
+         Assert.assertTrue(workers[i].configure(configuration));
+      }
+
+      Assert.assertSame(workers[0].getRateLimiter(), workers[1].getRateLimiter());
+      Assert.assertNotSame(workers[0].getRateLimiter(), workers[2].getRateLimiter());
+      Assert.assertNotSame(workers[0].getRateLimiter(), workers[3].getRateLimiter());
+   }
+}
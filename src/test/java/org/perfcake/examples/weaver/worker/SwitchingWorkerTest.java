@@ -27,8 +27,10 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
@@ -42,8 +44,8 @@ public class SwitchingWorkerTest {
       weaver.setConfig(new File(getClass().getResource("/").toURI()).getAbsolutePath() + "/switching.cfg");
       weaver.init();
 
-      final Queue<Worker> q = weaver.getWorkers();
-      SwitchingWorker w = (SwitchingWorker) q.poll();
+      final List<Worker> q = weaver.getWorkers();
+      SwitchingWorker w = (SwitchingWorker) q.get(0);
       final List<Worker> workers = w.getWorkers();
 
       Assert.assertEquals(w.getSwitchPeriod(), 1010);
@@ -55,4 +57,83 @@ public class SwitchingWorkerTest {
       Assert.assertTrue(workers.get(2) instanceof SwitchingWorker);
       Assert.assertEquals(((SwitchingWorker) workers.get(2)).getWorkers().size(), 2);
    }
-}
\ No newline at end of file
+
+   @Test
+   public void phasesTest() {
+      final SwitchingWorker w = new SwitchingWorker();
+      w.setPhases("3600000;7200000");
+      final Properties configuration = new Properties();
+      configuration.setProperty("worker1_class", "NormalWorker");
+      configuration.setProperty("worker2_class", "NormalWorker");
+      configuration.setProperty("worker3_class", "DelayWorker");
+      Assert.assertTrue(w.configure(configuration));
+      Assert.assertSame(w.select(), w.getWorkers().get(0));
+      w.close();
+
+      final long second = TimeUnit.SECONDS.toNanos(1);
+      final SwitchingWorker.Schedule schedule = new SwitchingWorker.Schedule(new long[] { 1000, 2000, 1000 }, new long[] { 0, 0, 0 }, 0);
+      Assert.assertEquals(schedule.advance(0), second);
+      Assert.assertEquals(schedule.state.phase, 0);
+      Assert.assertEquals(schedule.advance(second), 3 * second);
+      Assert.assertEquals(schedule.state.phase, 1);
+      Assert.assertEquals(schedule.advance(3 * second), 4 * second);
+      Assert.assertEquals(schedule.state.phase, 2);
+      Assert.assertEquals(schedule.advance(4 * second), 5 * second);
+      Assert.assertEquals(schedule.state.phase, 0);
+
+      // late updates keep to the timeline
+      schedule.advance(4 * second + 10 * 4 * second + 1500 * 1_000_000L);
+      Assert.assertEquals(schedule.state.phase, 1);
+      Assert.assertEquals(schedule.state.ramp, 0d);
+   }
+
+   @Test
+   public void rampTest() {
+      final long second = TimeUnit.SECONDS.toNanos(1);
+      final SwitchingWorker.Schedule schedule = new SwitchingWorker.Schedule(new long[] { 1000, 1000 }, new long[] { 0, 2000 }, 0);
+
+      schedule.advance(second);
+      Assert.assertEquals(schedule.state.phase, 1);
+      Assert.assertEquals(schedule.state.ramp, 0d);
+
+      Assert.assertEquals(schedule.advance(2 * second), 2 * second + SwitchingWorker.Schedule.RAMP_TICK);
+      Assert.assertEquals(schedule.state.phase, 1);
+      Assert.assertEquals(schedule.state.next, 0);
+      Assert.assertEquals(schedule.state.ramp, 0d);
+
+      schedule.advance(3 * second);
+      Assert.assertEquals(schedule.state.ramp, 0.5, 0.001);
+
+      Assert.assertEquals(schedule.advance(4 * second), 5 * second);
+      Assert.assertEquals(schedule.state.phase, 0);
+      Assert.assertEquals(schedule.state.ramp, 0d);
+   }
+
+   @Test
+   public void sharedScheduleTest() {
+      final SwitchingWorker[] workers = new SwitchingWorker[3];
+      for (int i = 0; i < workers.length; i++) {
+         workers[i] = new SwitchingWorker();
+         workers[i].setRamps("0;1000");
+         final Properties configuration = new Properties();
+         configuration.setProperty("worker1_class", "NormalWorker");
+         configuration.setProperty("worker2_class", "NormalWorker");
+         configuration.setProperty(MapConfigurable.LINE, i < 2 ? "[/] sharedScheduleTest" : "[/other] sharedScheduleTest");
+         Assert.assertTrue(workers[i].configure(configuration));
+      }
+
+      Assert.assertSame(workers[0].getSchedule(), workers[1].getSchedule());
+      Assert.assertNotSame(workers[0].getSchedule(), workers[2].getSchedule());
+      Arrays.stream(workers).forEach(SwitchingWorker::close);
+   }
+
+   @Test
+   public void tooManyPhasesTest() {
+      final SwitchingWorker w = new SwitchingWorker();
+      w.setPhases("1000;1000;1000");
+      final Properties configuration = new Properties();
+      configuration.setProperty("worker1_class", "NormalWorker");
+      configuration.setProperty("worker2_class", "NormalWorker");
+      Assert.assertFalse(w.configure(configuration));
+   }
+}
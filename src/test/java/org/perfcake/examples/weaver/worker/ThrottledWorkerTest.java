@@ -0,0 +1,51 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class ThrottledWorkerTest {
+
+   @Test
+   public void dueTest() {
+      final ThrottledWorker worker = new ThrottledWorker();
+      worker.setSize(10_000);
+      worker.setRate(1000);
+
+      Assert.assertEquals(worker.due(0, 0), 0);
+      Assert.assertEquals(worker.due(0, 500_000_000L), 500);
+      Assert.assertEquals(worker.due(2000, 1_000_000_000L), 3000);
+      Assert.assertEquals(worker.due(0, 60_000_000_000L), 10_000);
+
+      worker.setRate(0);
+      Assert.assertEquals(worker.due(0, 0), 10_000);
+   }
+
+   @Test
+   public void chunkTest() {
+      Assert.assertEquals(ThrottledWorker.chunk(100), 100);
+      Assert.assertEquals(ThrottledWorker.chunk(64 * 1024), 64 * 1024);
+      Assert.assertEquals(ThrottledWorker.chunk(10L * 1024 * 1024 * 1024), 64 * 1024);
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WeightedWorkerTest {
+
+   @Test
+   public void weightsTest() {
+      final WeightedWorker w = new WeightedWorker();
+      final Properties configuration = new Properties();
+      configuration.setProperty("worker1_class", "NormalWorker");
+      configuration.setProperty("worker1_weight", "97");
+      configuration.setProperty("worker2_class", "DelayWorker");
+      configuration.setProperty("worker2_delay", "3000");
+      configuration.setProperty("worker2_weight", "2");
+      configuration.setProperty("worker3_class", "NormalWorker");
+      configuration.setProperty("worker3_statusCode", "500");
+      configuration.setProperty("worker3_weight", "1");
+      configuration.setProperty("worker4_class", "NormalWorker");
+      configuration.setProperty("worker4_weight", "0");
+      Assert.assertTrue(w.configure(configuration));
+
+      final List<Worker> workers = w.getWorkers();
+      Assert.assertEquals(workers.size(), 4);
+      Assert.assertEquals(((DelayWorker) workers.get(1)).getDelay(), 3000);
+      Assert.assertEquals(((NormalWorker) workers.get(2)).getStatusCode(), 500);
+
+      final Map<Worker, Integer> counts = new HashMap<>();
+      final int samples = 1_000_000;
+      for (int i = 0; i < samples; i++) {
+         counts.merge(w.select(), 1, Integer::sum);
+      }
+
+      Assert.assertEquals(counts.getOrDefault(workers.get(0), 0) / (double) samples, 0.97, 0.005);
+      Assert.assertEquals(counts.getOrDefault(workers.get(1), 0) / (double) samples, 0.02, 0.002);
+      Assert.assertEquals(counts.getOrDefault(workers.get(2), 0) / (double) samples, 0.01, 0.002);
+      Assert.assertFalse(counts.containsKey(workers.get(3)));
+   }
+
+   @Test
+   public void wrongWeightsTest() {
+      final Properties negative = new Properties();
+      negative.setProperty("worker1_class", "NormalWorker");
+      negative.setProperty("worker1_weight", "-1");
+      Assert.assertFalse(new WeightedWorker().configure(negative));
+
+      final Properties zero = new Properties();
+      zero.setProperty("worker1_class", "NormalWorker");
+      zero.setProperty("worker1_weight", "0");
+      Assert.assertFalse(new WeightedWorker().configure(zero));
+   }
+}
@@ -0,0 +1,192 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WorkerPoolTest {
+
+   @Test
+   public void proportionsTest() throws InterruptedException {
+      final List<Worker> workers = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+         workers.add(new NormalWorker());
+      }
+
+      final WorkerPool pool = new WorkerPool(workers, 3);
+      Assert.assertEquals(pool.getStripes(), 3);
+
+      final List<List<Worker>> checkedOut = Collections.synchronizedList(new ArrayList<>());
+      final List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 3; t++) {
+         threads.add(new Thread(() -> {
+            final List<Worker> mine = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+               final Worker w = pool.checkout();
+               mine.add(w);
+               pool.release(w);
+            }
+            checkedOut.add(mine);
+         }));
+      }
+      // one after another, so that no thread has to steal
+      for (final Thread thread : threads) {
+         thread.start();
+         thread.join();
+      }
+
+      Assert.assertEquals(checkedOut.size(), 3);
+      final Set<Worker> firsts = new HashSet<>();
+      checkedOut.forEach(mine -> {
+         firsts.add(mine.get(0));
+         workers.forEach(w -> Assert.assertEquals(Collections.frequency(mine, w), 2));
+      });
+      Assert.assertEquals(firsts.size(), 3);
+   }
+
+   @Test
+   public void moreThreadsThanWorkersTest() {
+      final WorkerPool pool = new WorkerPool(Collections.singletonList(new NormalWorker()), 5);
+      Assert.assertEquals(pool.getStripes(), 1);
+      final Worker w = pool.checkout();
+      pool.release(w);
+      Assert.assertSame(pool.checkout(), w);
+   }
+
+   @Test
+   public void exclusiveCheckoutTest() {
+      final List<Worker> workers = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+         workers.add(new NormalWorker());
+      }
+
+      final WorkerPool pool = new WorkerPool(workers, 1);
+      final Worker first = pool.checkout();
+      final Worker second = pool.checkout();
+      final Worker third = pool.checkout();
+      Assert.assertEquals(new HashSet<>(Arrays.asList(first, second, third)).size(), 3);
+      Assert.assertNull(pool.tryCheckout());
+
+      pool.release(second);
+      Assert.assertSame(pool.tryCheckout(), second);
+      Assert.assertNull(pool.tryCheckout());
+   }
+
+   @Test
+   public void waitingCheckoutTest() throws InterruptedException {
+      final Worker worker = new NormalWorker();
+      final WorkerPool pool = new WorkerPool(Collections.singletonList(worker), 1);
+      Assert.assertSame(pool.checkout(), worker);
+
+      final AtomicReference<Worker> checkedOut = new AtomicReference<>();
+      final Thread waiter = new Thread(() -> checkedOut.set(pool.checkout()));
+      waiter.start();
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (waiter.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(waiter.getState(), Thread.State.WAITING); // parked, not spinning
+      Assert.assertNull(checkedOut.get());
+
+      pool.release(worker);
+      waiter.join(5000);
+      Assert.assertSame(checkedOut.get(), worker);
+   }
+
+   @Test
+   public void retireTest() {
+      final WorkerPool pool = new WorkerPool(Collections.singletonList(new NormalWorker()), 1);
+      final AtomicInteger closed = new AtomicInteger();
+      Assert.assertTrue(pool.enter());
+      Assert.assertTrue(pool.enter());
+
+      pool.retire(closed::incrementAndGet);
+      Assert.assertFalse(pool.enter());
+      Assert.assertEquals(closed.get(), 0);
+
+      pool.exit();
+      Assert.assertEquals(closed.get(), 0);
+      pool.exit();
+      Assert.assertEquals(closed.get(), 1);
+
+      pool.retire(closed::incrementAndGet);
+      Assert.assertEquals(closed.get(), 1);
+
+      final WorkerPool idle = new WorkerPool(Collections.singletonList(new NormalWorker()), 1);
+      idle.retire(closed::incrementAndGet);
+      Assert.assertEquals(closed.get(), 2);
+      Assert.assertFalse(idle.enter());
+   }
+
+   @Test
+   public void noConcurrentUseTest() throws InterruptedException {
+      final AtomicBoolean overlap = new AtomicBoolean(false);
+      final List<Worker> workers = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+         final AtomicInteger users = new AtomicInteger();
+         workers.add(context -> {
+            if (users.incrementAndGet() > 1) {
+               overlap.set(true);
+            }
+            Thread.yield();
+            users.decrementAndGet();
+         });
+      }
+
+      final WorkerPool pool = new WorkerPool(workers, 2);
+      final List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+         threads.add(new Thread(() -> {
+            for (int i = 0; i < 10_000; i++) {
+               final Worker w = pool.checkout();
+               try {
+                  w.work(null);
+               } catch (Exception e) {
+                  throw new IllegalStateException(e);
+               } finally {
+                  pool.release(w);
+               }
+            }
+         }));
+      }
+      threads.forEach(Thread::start);
+      for (final Thread thread : threads) {
+         thread.join();
+      }
+
+      Assert.assertFalse(overlap.get());
+   }
+}
@@ -0,0 +1,90 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.examples.weaver.worker;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class WorkerTemplateTest {
+
+   @Test
+   public void newInstanceTest() throws ReflectiveOperationException {
+      final Properties properties = new Properties();
+      properties.setProperty("maxSpeed", "200");
+      properties.setProperty("group", "workerTemplateTest");
+      properties.setProperty("response", " Hello ");
+      properties.setProperty("mirrorRequest", "yes");
+      properties.setProperty("unknown", "ignored");
+
+      final WorkerTemplate template = WorkerTemplate.compile("MaxSpeedWorker", properties);
+      final MaxSpeedWorker first = (MaxSpeedWorker) template.newInstance();
+      final MaxSpeedWorker second = (MaxSpeedWorker) template.newInstance();
+
+      Assert.assertNotSame(first, second);
+      for (final MaxSpeedWorker worker : new MaxSpeedWorker[] { first, second }) {
+         Assert.assertEquals(worker.getMaxSpeed(), 200);
+         Assert.assertEquals(worker.getGroup(), "workerTemplateTest");
+         Assert.assertEquals(worker.getResponse(), " Hello ");
+         Assert.assertTrue(worker.isMirrorRequest());
+      }
+   }
+
+   @Test
+   public void compileErrorsTest() throws ReflectiveOperationException {
+      final Properties properties = new Properties();
+      properties.setProperty("delay", "slow");
+
+      try {
+         WorkerTemplate.compile("DelayWorker", properties);
+         Assert.fail("A wrong number must be refused.");
+      } catch (IllegalArgumentException e) {
+         Assert.assertTrue(e.getMessage().contains("delay"));
+      }
+
+      try {
+         WorkerTemplate.compile("java.lang.String", new Properties());
+         Assert.fail("Only workers can be created.");
+      } catch (ClassCastException e) {
+         // expected
+      }
+
+      try {
+         WorkerTemplate.compile("NoSuchWorker", new Properties());
+         Assert.fail("An unknown class must be refused.");
+      } catch (ClassNotFoundException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void workerPropertyTest() {
+      Assert.assertTrue(WorkerTemplate.isWorkerProperty("worker1_class"));
+      Assert.assertTrue(WorkerTemplate.isWorkerProperty("worker12_delay"));
+      Assert.assertFalse(WorkerTemplate.isWorkerProperty("worker_class"));
+      Assert.assertFalse(WorkerTemplate.isWorkerProperty("worker1"));
+      Assert.assertFalse(WorkerTemplate.isWorkerProperty("workers1_class"));
+      Assert.assertFalse(WorkerTemplate.isWorkerProperty("delay"));
+   }
+}